@@ -0,0 +1,48 @@
+package net.redborder.cep.benchmarks;
+
+import net.redborder.cep.util.ConfigData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * This class loads the config file used by the benchmarks.
+ * <p>The config file is read from the classpath resource benchmarks.yml, unless a path is given
+ * with the system property cep.config. It defines streams shaped like the ones used on production,
+ * and a sink that discards every message.
+ */
+
+public class BenchmarkConfig {
+    // True once the config file has been loaded
+    private static boolean loaded = false;
+
+    // Mark the constructor as private to avoid external instantiation
+    private BenchmarkConfig() { }
+
+    /**
+     * Loads the config file, if it has not been loaded yet.
+     */
+
+    public static synchronized void load() {
+        if (loaded) return;
+
+        String configFile = System.getProperty("cep.config");
+
+        if (configFile == null) {
+            try (InputStream resource = BenchmarkConfig.class.getClassLoader().getResourceAsStream("benchmarks.yml")) {
+                File file = File.createTempFile("cep-benchmarks", ".yml");
+                file.deleteOnExit();
+                Files.copy(resource, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                configFile = file.getAbsolutePath();
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't load the benchmarks config file", e);
+            }
+        }
+
+        ConfigData.setConfigFile(configFile);
+        loaded = true;
+    }
+}
@@ -0,0 +1,154 @@
+package net.redborder.cep.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.redborder.cep.siddhi.StreamSchema;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class generates synthetic events shaped like the attributes of a stream.
+ * <p>The values are random but reproducible, as the generator uses a fixed seed. String
+ * attributes take their values from a small set, like MAC addresses or sensor names do,
+ * so filters on them match a fraction of the events. The JSON messages also include some
+ * fields that are not attributes of the stream, as the real messages do.
+ */
+
+public class EventGenerator {
+    // The number of distinct values of each string attribute
+    private static final int CARDINALITY = 16;
+
+    // The schema of the stream
+    private final StreamSchema schema;
+
+    // The random values source
+    private final Random random = new Random(42);
+
+    // A JSON serializer from Jackson
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Creates a new generator.
+     *
+     * @param streamName The stream whose events will be generated
+     */
+
+    public EventGenerator(String streamName) {
+        this.schema = StreamSchema.of(streamName);
+
+        if (schema == null) {
+            throw new IllegalArgumentException("No stream definition found for stream " + streamName);
+        }
+    }
+
+    /**
+     * @return the schema of the stream
+     */
+
+    public StreamSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return a new event as a row ordered by the stream schema
+     */
+
+    public Object[] row() {
+        Object[] row = new Object[schema.size()];
+
+        for (int i = 0; i < row.length; i++) {
+            row[i] = value(schema.getAttributeName(i), schema.getAttributeType(i));
+        }
+
+        return row;
+    }
+
+    /**
+     * @return a new event as a map, including fields that are not attributes of the stream
+     */
+
+    public Map<String, Object> map() {
+        Map<String, Object> map = schema.toMap(row());
+        map.put("type", "netflowv10");
+        map.put("flow_sequence", random.nextInt());
+        map.put("observation_id", "" + random.nextInt(CARDINALITY));
+
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("tenant", "tenant" + random.nextInt(CARDINALITY));
+        nested.put("deployment", "deployment" + random.nextInt(CARDINALITY));
+        map.put("enrichment", nested);
+        return map;
+    }
+
+    /**
+     * @return a new event as a UTF-8 encoded JSON message
+     */
+
+    public byte[] json() {
+        try {
+            return objectMapper.writeValueAsBytes(map());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param count The number of messages
+     * @return an array of new events as UTF-8 encoded JSON messages
+     */
+
+    public byte[][] json(int count) {
+        byte[][] messages = new byte[count][];
+
+        for (int i = 0; i < count; i++) {
+            messages[i] = json();
+        }
+
+        return messages;
+    }
+
+    /**
+     * @param count The number of rows
+     * @return an array of new events as rows ordered by the stream schema
+     */
+
+    public Object[][] rows(int count) {
+        Object[][] rows = new Object[count][];
+
+        for (int i = 0; i < count; i++) {
+            rows[i] = row();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Generates a random value for an attribute.
+     *
+     * @param name The attribute name
+     * @param type The attribute type
+     * @return The value
+     */
+
+    private Object value(String name, Attribute.Type type) {
+        switch (type) {
+            case STRING:
+                return name + "_" + random.nextInt(CARDINALITY);
+            case INT:
+                return random.nextInt(1000);
+            case LONG:
+                return name.equals("timestamp") ? System.currentTimeMillis() / 1000 : (long) random.nextInt(1000000);
+            case FLOAT:
+                return random.nextFloat();
+            case DOUBLE:
+                return random.nextDouble();
+            case BOOL:
+                return random.nextBoolean();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package net.redborder.cep.benchmarks;
+
+import net.redborder.cep.sinks.Sink;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class implements a Sink that discards every message, so the benchmarks
+ * measure the CEP and not the output systems. It only counts the messages.
+ */
+
+public class NullSink extends Sink {
+    // The number of messages received
+    private final AtomicLong count = new AtomicLong();
+
+    public NullSink(Map<String, Object> properties) {
+        super(properties);
+    }
+
+    @Override
+    public void process(String streamName, String topic, Map<String, Object> message) {
+        count.incrementAndGet();
+    }
+
+    @Override
+    public void start() { }
+
+    @Override
+    public void shutdown() { }
+
+    /**
+     * @return the number of messages received
+     */
+
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,74 @@
+package net.redborder.cep.benchmarks;
+
+import net.redborder.cep.sources.parsers.JsonParser;
+import net.redborder.cep.sources.parsers.SchemaJsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsers of the input messages: the generic JsonParser, from strings and
+ * from bytes, and the SchemaJsonParser writing the stream attributes into a row.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class ParserBenchmark {
+    // The number of distinct messages, a power of two
+    private static final int MESSAGES = 1024;
+
+    @Param({"rb_flow", "rb_loc"})
+    public String stream;
+
+    private JsonParser jsonParser;
+    private SchemaJsonParser schemaJsonParser;
+    private byte[][] messages;
+    private String[] strings;
+    private Object[] row;
+    private int index;
+
+    @Setup
+    public void setup() {
+        BenchmarkConfig.load();
+        EventGenerator generator = new EventGenerator(stream);
+
+        jsonParser = new JsonParser();
+        schemaJsonParser = new SchemaJsonParser(stream);
+        messages = generator.json(MESSAGES);
+        strings = new String[MESSAGES];
+        row = new Object[generator.getSchema().size()];
+
+        for (int i = 0; i < MESSAGES; i++) {
+            strings[i] = new String(messages[i], StandardCharsets.UTF_8);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (MESSAGES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public Map<String, Object> jsonParserString() {
+        return jsonParser.parse(strings[next()]);
+    }
+
+    @Benchmark
+    public Map<String, Object> jsonParserBytes() {
+        byte[] message = messages[next()];
+        return jsonParser.parse(message, 0, message.length);
+    }
+
+    @Benchmark
+    public Object[] schemaJsonParserRow() {
+        byte[] message = messages[next()];
+        schemaJsonParser.parse(message, 0, message.length, row);
+        return row;
+    }
+}
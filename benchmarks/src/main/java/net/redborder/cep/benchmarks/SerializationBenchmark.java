@@ -0,0 +1,91 @@
+package net.redborder.cep.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.redborder.cep.siddhi.StreamSchema;
+import net.redborder.cep.sinks.RowMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of the output messages to JSON: the way KafkaSink does it,
+ * through a string that is encoded again, and the way KafkaProducerSink does it, writing
+ * maps and rows straight into a reusable buffer.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class SerializationBenchmark {
+    // The number of distinct messages, a power of two
+    private static final int MESSAGES = 1024;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = objectMapper.getFactory();
+    private final ByteArrayBuilder buffer = new ByteArrayBuilder(1024);
+
+    private Map<String, Object>[] maps;
+    private RowMap[] rowMaps;
+    private int index;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        BenchmarkConfig.load();
+        EventGenerator generator = new EventGenerator("rb_flow");
+        StreamSchema schema = generator.getSchema();
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < schema.size(); i++) {
+            names.add(schema.getAttributeName(i));
+        }
+
+        RowMap.Schema rowSchema = new RowMap.Schema(names);
+        maps = new Map[MESSAGES];
+        rowMaps = new RowMap[MESSAGES];
+
+        for (int i = 0; i < MESSAGES; i++) {
+            Object[] row = generator.row();
+            rowMaps[i] = new RowMap(rowSchema, row);
+            maps[i] = new HashMap<>(rowMaps[i]);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (MESSAGES - 1);
+        return index;
+    }
+
+    @Benchmark
+    public byte[] kafkaSinkString() throws IOException {
+        return objectMapper.writeValueAsString(maps[next()]).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] mapToBuffer() throws IOException {
+        buffer.reset();
+        objectMapper.writeValue(jsonFactory.createGenerator(buffer), maps[next()]);
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] rowMapToBuffer() throws IOException {
+        buffer.reset();
+        JsonGenerator generator = jsonFactory.createGenerator(buffer);
+        rowMaps[next()].writeTo(generator);
+        generator.close();
+        return buffer.toByteArray();
+    }
+}
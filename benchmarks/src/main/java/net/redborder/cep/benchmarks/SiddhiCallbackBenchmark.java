@@ -0,0 +1,55 @@
+package net.redborder.cep.benchmarks;
+
+import net.redborder.cep.siddhi.SiddhiCallback;
+import net.redborder.cep.sinks.SinksManager;
+import org.openjdk.jmh.annotations.*;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of the events produced by Siddhi into the messages that
+ * are enqueued for the sinks.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class SiddhiCallbackBenchmark {
+    // The number of events received on each call
+    private static final int EVENTS = 64;
+
+    private SinksManager sinksManager;
+    private StreamCallback streamCallback;
+    private Event[] events;
+
+    @Setup
+    public void setup() {
+        BenchmarkConfig.load();
+        EventGenerator generator = new EventGenerator("rb_flow");
+
+        sinksManager = new SinksManager();
+        streamCallback = new SiddhiCallback(sinksManager).getCallback("out", "rb_out",
+                generator.getSchema().getDefinition().getAttributeList());
+
+        events = new Event[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = new Event(System.currentTimeMillis(), generator.row());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sinksManager.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void receive() {
+        streamCallback.receive(events);
+    }
+}
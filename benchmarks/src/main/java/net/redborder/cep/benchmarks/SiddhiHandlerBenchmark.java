@@ -0,0 +1,81 @@
+package net.redborder.cep.benchmarks;
+
+import net.redborder.cep.siddhi.SiddhiHandler;
+import net.redborder.cep.siddhi.SiddhiPlan;
+import net.redborder.cep.siddhi.StreamSchema;
+import net.redborder.cep.sinks.SinksManager;
+import net.redborder.cep.sources.disruptor.RowEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the dispatch of the events received from the ring buffer to a number of siddhi
+ * plans, through SiddhiHandler.onEvent. Half of the plans filter the events by sensor, and
+ * the ring buffer batches have the given size, which is when the plans send their events to Siddhi.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class SiddhiHandlerBenchmark {
+    // The number of distinct events, a power of two
+    private static final int EVENTS = 1024;
+
+    @Param({"1", "10", "50"})
+    public int plans;
+
+    @Param({"1", "64"})
+    public int batchSize;
+
+    private SinksManager sinksManager;
+    private SiddhiHandler siddhiHandler;
+    private RowEvent[] events;
+    private long sequence;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkConfig.load();
+        EventGenerator generator = new EventGenerator("rb_flow");
+        StreamSchema schema = generator.getSchema();
+
+        sinksManager = new SinksManager();
+        siddhiHandler = new SiddhiHandler(sinksManager);
+
+        for (int i = 0; i < plans; i++) {
+            Map<String, String> filters = new HashMap<>();
+            if (i % 2 == 1) filters.put("sensor_name", "sensor_name_" + (i % 16));
+
+            siddhiHandler.add(new SiddhiPlan("plan" + i, 0, Collections.singletonList("rb_flow"),
+                    Collections.singletonMap("out", "rb_out_" + i), filters,
+                    "from rb_flow[bytes > 500000] select client_mac, sensor_name, bytes insert into out;"));
+        }
+
+        events = new RowEvent[EVENTS];
+
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = new RowEvent();
+            Object[] row = events[i].reset(schema);
+            System.arraycopy(generator.row(), 0, row, 0, row.length);
+            events[i].setValid(true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        siddhiHandler.stop();
+        sinksManager.shutdown();
+    }
+
+    @Benchmark
+    public void onEvent() throws Exception {
+        long current = sequence++;
+        siddhiHandler.onEvent(events[(int) (current & (EVENTS - 1))], current, (current + 1) % batchSize == 0);
+    }
+}
@@ -0,0 +1,73 @@
+package net.redborder.cep.benchmarks;
+
+import net.redborder.cep.siddhi.SiddhiCallback;
+import net.redborder.cep.siddhi.SiddhiPlan;
+import net.redborder.cep.sinks.SinksManager;
+import org.openjdk.jmh.annotations.*;
+import org.wso2.siddhi.core.SiddhiManager;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of sending rows to the Siddhi runtime of a single plan the way
+ * the lanes do: the rows are enqueued, and the plan is flushed at the end of each
+ * ring buffer batch, which holds a single row when the load is low.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmarks.xml")
+public class SiddhiPlanBenchmark {
+    // The number of distinct rows, a power of two
+    private static final int ROWS = 1024;
+
+    // The number of rows sent on each invocation
+    private static final int EVENTS = 1024;
+
+    // The number of rows of each ring buffer batch, after which the plan is flushed
+    @Param({"1", "64", "1024"})
+    public int batchSize;
+
+    private SinksManager sinksManager;
+    private SiddhiPlan siddhiPlan;
+    private Object[][] rows;
+    private int streamId;
+    private int index;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkConfig.load();
+        EventGenerator generator = new EventGenerator("rb_flow");
+
+        sinksManager = new SinksManager();
+        siddhiPlan = new SiddhiPlan("plan", 0, Collections.singletonList("rb_flow"),
+                Collections.singletonMap("out", "rb_out"), Collections.<String, String>emptyMap(),
+                "from rb_flow[bytes > 500000] select client_mac, sensor_name, bytes insert into out;");
+        siddhiPlan.start(new SiddhiManager(), new SiddhiCallback(sinksManager));
+
+        rows = generator.rows(ROWS);
+        streamId = generator.getSchema().getId();
+    }
+
+    @TearDown
+    public void tearDown() {
+        siddhiPlan.stop();
+        sinksManager.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void enqueueAndFlush() {
+        long timestamp = System.currentTimeMillis();
+
+        for (int i = 1; i <= EVENTS; i++) {
+            index = (index + 1) & (ROWS - 1);
+            siddhiPlan.enqueue(streamId, timestamp, rows[index]);
+            if (i % batchSize == 0) siddhiPlan.flush();
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package net.redborder.cep;
 
+import net.redborder.cep.metrics.Metrics;
 import net.redborder.cep.rest.RestManager;
 import net.redborder.cep.sinks.SinksManager;
 import net.redborder.cep.siddhi.SiddhiHandler;
+import net.redborder.cep.siddhi.SnapshotManager;
 import net.redborder.cep.sources.SourcesManager;
 import net.redborder.cep.sources.parsers.ParsersManager;
 import net.redborder.cep.util.ConfigData;
 
+import java.nio.file.Paths;
+
 public class CorrelationService {
     public static final String DEFAULT_CONFIG_FILE = "./conf/config.yml";
 
@@ -25,22 +29,34 @@ public class CorrelationService {
         // This will add the rules that are present on the state file
         siddhiHandler.restore();
 
+        // If the state of the rules is snapshotted, restore it before the sources start
+        String snapshotDir = ConfigData.getSnapshotDir();
+        final SnapshotManager snapshotManager = snapshotDir == null ? null :
+                new SnapshotManager(siddhiHandler, Paths.get(snapshotDir), ConfigData.getSnapshotInterval());
+        if (snapshotManager != null) snapshotManager.restore();
+
         // ParserManager prepare all parsers and create relations between parsers and sources.
         ParsersManager parsersManager = new ParsersManager();
 
         // SourcesManager coordinates the sources that consumes events from streams
-        // The messages read from streams are sent to siddhi handler
-        final SourcesManager sourcesManager = new SourcesManager(parsersManager, siddhiHandler);
+        // The messages read from streams are sent to the siddhi handler lanes, that
+        // execute the siddhi plans in parallel
+        final SourcesManager sourcesManager = new SourcesManager(parsersManager, siddhiHandler.getLanes());
+        if (snapshotManager != null) snapshotManager.start(sourcesManager);
 
         // RestManager starts the REST API and redirects the queries
         // that users add with it to SiddhiHandler.
         String restUri = ConfigData.getRESTURI();
         RestManager.startServer(restUri, siddhiHandler);
 
+        // The metrics are always served by the REST API, and by JMX if enabled
+        if (ConfigData.getJmxMetrics()) Metrics.registerMBean();
+
         // Add a hook to execute when the user wants to exit
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
+                if (snapshotManager != null) snapshotManager.shutdown();
                 siddhiHandler.stop();
                 sourcesManager.shutdown();
                 sinksManager.shutdown();
@@ -0,0 +1,45 @@
+package net.redborder.cep.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a metric that counts events, like consumed messages or errors.
+ *
+ * @see Metrics#counter(String)
+ */
+
+public class Counter implements Metric {
+    // The current count
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Increments the count by one.
+     */
+
+    public void inc() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * Increments the count by the given amount.
+     *
+     * @param amount The amount to add
+     */
+
+    public void add(long amount) {
+        count.addAndGet(amount);
+    }
+
+    /**
+     * @return the current count
+     */
+
+    public long get() {
+        return count.get();
+    }
+
+    @Override
+    public Object snapshot() {
+        return count.get();
+    }
+}
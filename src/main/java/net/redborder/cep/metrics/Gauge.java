@@ -0,0 +1,21 @@
+package net.redborder.cep.metrics;
+
+/**
+ * This class represents a metric whose value is read when the metrics are
+ * requested, like the remaining capacity of a ring buffer.
+ *
+ * @see Metrics#gauge(String, Gauge)
+ */
+
+public abstract class Gauge implements Metric {
+    /**
+     * @return the current value of the gauge
+     */
+
+    public abstract long value();
+
+    @Override
+    public Object snapshot() {
+        return value();
+    }
+}
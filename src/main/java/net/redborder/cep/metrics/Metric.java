@@ -0,0 +1,15 @@
+package net.redborder.cep.metrics;
+
+/**
+ * This interface represents a metric of the metrics registry.
+ *
+ * @see Metrics
+ */
+
+public interface Metric {
+    /**
+     * @return the current value of the metric, as a number or as a map of numbers
+     */
+
+    Object snapshot();
+}
@@ -0,0 +1,128 @@
+package net.redborder.cep.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class is the registry of the metrics of the CEP.
+ * <p>Every stage of the pipeline registers its metrics by name, using dots to separate
+ * the stage, the element and the measure, like "plan.myrule.send_time". Metrics with the
+ * same name are shared, so they survive the restart of the elements that own them.
+ * The metrics are served by the REST API, and optionally by JMX.
+ *
+ * @see net.redborder.cep.rest.RestRules#metrics()
+ */
+
+public class Metrics {
+    private static final Logger log = LogManager.getLogger(Metrics.class);
+
+    // The registered metrics, by name
+    private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    // Mark the constructor as private to avoid external instantiation
+    private Metrics() { }
+
+    /**
+     * Gets the counter with the given name, creating it if it doesn't exist.
+     *
+     * @param name The metric name
+     * @return The counter
+     */
+
+    public static Counter counter(String name) {
+        return register(name, new Counter(), Counter.class);
+    }
+
+    /**
+     * Gets the timer with the given name, creating it if it doesn't exist.
+     *
+     * @param name The metric name
+     * @return The timer
+     */
+
+    public static Timer timer(String name) {
+        return register(name, new Timer(), Timer.class);
+    }
+
+    /**
+     * Registers a gauge with the given name, replacing any previous one.
+     *
+     * @param name The metric name
+     * @param gauge The gauge
+     */
+
+    public static void gauge(String name, Gauge gauge) {
+        metrics.put(name, gauge);
+    }
+
+    /**
+     * Removes the metrics with the given names. The names are matched exactly, as the
+     * names of different elements can share a prefix, like "plan.a" and "plan.a.b".
+     *
+     * @param names The metrics names
+     */
+
+    public static void remove(Collection<String> names) {
+        for (String name : names) {
+            metrics.remove(name);
+        }
+    }
+
+    /**
+     * @return the current value of every metric, by metric name, sorted by name
+     */
+
+    public static SortedMap<String, Object> snapshot() {
+        SortedMap<String, Object> result = new TreeMap<>();
+
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        return result;
+    }
+
+    /**
+     * Registers the metrics on the platform MBean server, with the name
+     * net.redborder.cep:type=Metrics, so they can be read with JMX.
+     */
+
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                    new ObjectName("net.redborder.cep:type=Metrics"));
+        } catch (Exception e) {
+            log.warn("Couldn't register the metrics MBean", e);
+        }
+    }
+
+    /**
+     * Gets a metric, registering the given one if there is no metric with that name.
+     *
+     * @param name The metric name
+     * @param metric The metric that will be registered if there is none
+     * @param type The type of the metric
+     * @return The registered metric
+     * @throws IllegalArgumentException if there is a metric of another type with the same name
+     */
+
+    private static <T extends Metric> T register(String name, T metric, Class<T> type) {
+        Metric current = metrics.putIfAbsent(name, metric);
+        if (current == null) return metric;
+
+        if (!type.isInstance(current)) {
+            throw new IllegalArgumentException("Metric " + name + " is not a " + type.getSimpleName());
+        }
+
+        return type.cast(current);
+    }
+}
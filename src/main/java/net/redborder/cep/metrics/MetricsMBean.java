@@ -0,0 +1,81 @@
+package net.redborder.cep.metrics;
+
+import javax.management.*;
+import java.util.*;
+
+/**
+ * This class exposes the metrics registry as a JMX MBean. Every metric is a read-only
+ * attribute, and the measures of the timers are attributes named after the timer and
+ * the measure, like "plan.myrule.send_time.p99_us".
+ *
+ * @see Metrics#registerMBean()
+ */
+
+class MetricsMBean implements DynamicMBean {
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = flatten().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Object> values = flatten();
+        AttributeList result = new AttributeList();
+
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) result.add(new Attribute(attribute, values.get(attribute)));
+        }
+
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("The metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        for (String name : flatten().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+        }
+
+        return new MBeanInfo(Metrics.class.getName(), "CEP metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+    }
+
+    /**
+     * @return the value of every metric, with the measures of the timers as separated values
+     */
+
+    private Map<String, Object> flatten() {
+        Map<String, Object> snapshot = Metrics.snapshot();
+        Map<String, Object> result = new TreeMap<>();
+
+        for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                for (Map.Entry<?, ?> measure : ((Map<?, ?>) entry.getValue()).entrySet()) {
+                    result.put(entry.getKey() + "." + measure.getKey(), measure.getValue());
+                }
+            } else {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return result;
+    }
+}
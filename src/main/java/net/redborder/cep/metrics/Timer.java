@@ -0,0 +1,55 @@
+package net.redborder.cep.metrics;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class represents a metric that records the distribution of a duration,
+ * like the time that a siddhi plan spends on each send.
+ * <p>The durations are recorded in nanoseconds on a histogram with three significant
+ * digits, and they are reported in microseconds.
+ *
+ * @see Metrics#timer(String)
+ */
+
+public class Timer implements Metric {
+    // The highest duration that can be recorded, one minute
+    private static final long HIGHEST_DURATION = TimeUnit.MINUTES.toNanos(1);
+
+    // The recorded durations
+    private final Histogram histogram = new ConcurrentHistogram(HIGHEST_DURATION, 3);
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+
+    public void record(long nanos) {
+        histogram.recordValue(Math.max(0, Math.min(nanos, HIGHEST_DURATION)));
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+
+    public long getCount() {
+        return histogram.getTotalCount();
+    }
+
+    @Override
+    public Object snapshot() {
+        Histogram copy = histogram.copy();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", copy.getTotalCount());
+        result.put("mean_us", (long) copy.getMean() / 1000);
+        result.put("p50_us", copy.getValueAtPercentile(50) / 1000);
+        result.put("p99_us", copy.getValueAtPercentile(99) / 1000);
+        result.put("max_us", copy.getMaxValue() / 1000);
+        return result;
+    }
+}
@@ -1,5 +1,6 @@
 package net.redborder.cep.rest;
 
+import net.redborder.cep.metrics.Metrics;
 import net.redborder.cep.rest.exceptions.RestException;
 import net.redborder.cep.rest.exceptions.RestInvalidException;
 import net.redborder.cep.rest.exceptions.RestNotFoundException;
@@ -159,6 +160,31 @@ public class RestRules {
         return response;
     }
 
+    /**
+     * This method handles HTTP GET requests at path /metrics.
+     * It responds with the current value of every metric of the CEP, by metric name.
+     *
+     * @return Response with the appropriate HTTP code.
+     */
+
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response metrics() {
+        Response response;
+
+        try {
+            response = Response.ok().entity(Metrics.snapshot()).build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            response = Response.serverError()
+                    .entity(toMap(e, Response.Status.INTERNAL_SERVER_ERROR))
+                    .build();
+        }
+
+        return response;
+    }
+
     // Helper methods
 
     /**
@@ -0,0 +1,90 @@
+package net.redborder.cep.siddhi;
+
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.input.InputHandler;
+
+import java.util.Arrays;
+
+/**
+ * This class accumulates the events sent to an input stream of an execution plan,
+ * so they can be sent to Siddhi as a single array instead of one by one.
+ * <p>The events keep a reference to the rows they were created from, so the batch
+ * must be flushed before the rows are reused by the ring buffer, this is, before the
+ * end of the ring buffer batch they belong to.
+ *
+ * @see SiddhiPlan#enqueue(int, long, Object[])
+ */
+
+class InputBatch {
+    // The input handler that will receive the events
+    private final InputHandler inputHandler;
+
+    // The pending events. The event objects are reused between batches.
+    private final Event[] events;
+
+    // The number of pending events
+    private int size;
+
+    /**
+     * Creates a new batch.
+     *
+     * @param inputHandler The input handler that will receive the events
+     * @param maxSize The maximum number of events that will be accumulated
+     */
+
+    InputBatch(InputHandler inputHandler, int maxSize) {
+        this.inputHandler = inputHandler;
+        this.events = new Event[Math.max(1, maxSize)];
+
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new Event();
+        }
+    }
+
+    /**
+     * Adds a new event to the batch. The batch can't hold more events once it is full,
+     * so the caller must flush it then, accounting the events like any other flush.
+     *
+     * @param timestamp The timestamp of the event
+     * @param row The attribute values of the event
+     * @return true if the batch is full after adding the event, so it must be flushed
+     */
+
+    boolean add(long timestamp, Object[] row) {
+        Event event = events[size++];
+        event.setTimestamp(timestamp);
+        event.setData(row);
+        return size == events.length;
+    }
+
+    /**
+     * Sends the pending events to Siddhi, if any.
+     *
+     * @return the number of events sent
+     * @throws InterruptedException if Siddhi was interrupted
+     */
+
+    int flush() throws InterruptedException {
+        if (size == 0) return 0;
+        int sent = size;
+
+        try {
+            if (size == 1) {
+                inputHandler.send(events[0]);
+            } else if (size == events.length) {
+                inputHandler.send(events);
+            } else {
+                inputHandler.send(Arrays.copyOf(events, size));
+            }
+        } finally {
+            // Release the references to the rows
+            for (int i = 0; i < size; i++) {
+                events[i].setData(null);
+            }
+
+            size = 0;
+        }
+
+        return sent;
+    }
+}
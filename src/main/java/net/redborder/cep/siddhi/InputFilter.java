@@ -0,0 +1,149 @@
+package net.redborder.cep.siddhi;
+
+import net.redborder.cep.siddhi.exceptions.ExecutionPlanException;
+import net.redborder.cep.siddhi.exceptions.InvalidExecutionPlanException;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class represents the filters of a siddhi plan, compiled for one of its input streams.
+ * <p>Each filter requires an attribute of the stream to be equal to a value. The values are
+ * converted to the type of their attributes when the filter is compiled, so the rows are
+ * matched without converting their values. Two plans with the same filters on a stream
+ * have equal input filters, so the lanes evaluate them once for both plans.
+ *
+ * @see SiddhiPlan#getInputFilter(int)
+ * @see StreamRoute
+ */
+
+class InputFilter {
+    // The positions of the filtered attributes on the rows, in ascending order
+    private final int[] positions;
+
+    // The value required for each filtered attribute
+    private final Object[] values;
+
+    /**
+     * Compiles the given filters for a stream.
+     *
+     * @param schema The schema of the stream
+     * @param filters The filters, as a map from attribute name to the required value
+     * @return The input filter, or null if there are no filters
+     * @throws ExecutionPlanException if an attribute is not part of the stream, or
+     *         its value can't be converted to the type of the attribute
+     */
+
+    static InputFilter compile(StreamSchema schema, Map<String, String> filters) throws ExecutionPlanException {
+        if (filters.isEmpty()) return null;
+
+        // Sort the filters by position, so equal filters are compiled the same way
+        Map<Integer, Object> sorted = new TreeMap<>();
+
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            int position = schema.indexOf(filter.getKey());
+
+            if (position < 0) {
+                throw new InvalidExecutionPlanException("Filter attribute " + filter.getKey() +
+                        " is not part of the stream " + schema.getName());
+            }
+
+            sorted.put(position, convert(filter.getValue(), schema.getAttributeType(position), filter.getKey()));
+        }
+
+        int[] positions = new int[sorted.size()];
+        Object[] values = new Object[sorted.size()];
+        int i = 0;
+
+        for (Map.Entry<Integer, Object> entry : sorted.entrySet()) {
+            positions[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+
+        return new InputFilter(positions, values);
+    }
+
+    /**
+     * Converts the value of a filter to the type of its attribute.
+     *
+     * @param value The value of the filter
+     * @param type The type of the attribute
+     * @param name The name of the attribute
+     * @return The converted value
+     * @throws ExecutionPlanException if the value can't be converted
+     */
+
+    private static Object convert(String value, Attribute.Type type, String name) throws ExecutionPlanException {
+        try {
+            switch (type) {
+                case INT:
+                    return Integer.valueOf(value);
+                case LONG:
+                    return Long.valueOf(value);
+                case FLOAT:
+                    return Float.valueOf(value);
+                case DOUBLE:
+                    return Double.valueOf(value);
+                case BOOL:
+                    return Boolean.valueOf(value);
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidExecutionPlanException("Filter value " + value + " is not valid for attribute " + name, e);
+        }
+    }
+
+    private InputFilter(int[] positions, Object[] values) {
+        this.positions = positions;
+        this.values = values;
+    }
+
+    /**
+     * @return the position of the attribute used to index this filter
+     */
+
+    int getIndexPosition() {
+        return positions[0];
+    }
+
+    /**
+     * @return the value of the attribute used to index this filter
+     */
+
+    Object getIndexValue() {
+        return values[0];
+    }
+
+    /**
+     * Checks if a row matches every filter.
+     *
+     * @param row The row
+     * @return true if the row matches
+     */
+
+    boolean matches(Object[] row) {
+        for (int i = 0; i < positions.length; i++) {
+            if (!values[i].equals(row[positions[i]])) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof InputFilter)) return false;
+
+        InputFilter other = (InputFilter) o;
+        return Arrays.equals(positions, other.positions) && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(positions) + Arrays.hashCode(values);
+    }
+}
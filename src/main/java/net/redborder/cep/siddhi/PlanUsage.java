@@ -0,0 +1,333 @@
+package net.redborder.cep.siddhi;
+
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.siddhi.exceptions.TransformException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class accounts the resources used by a siddhi plan, and enforces its limits.
+ * <p>Every second, the CPU time spent by the lane sending events to the plan and the rate of
+ * output events of the plan are compared with the limits of the plan. The limits are checked
+ * when the lane records the events of a window that is over, and by a timer of the handler, so
+ * the plans that don't receive events, or whose outputs come from timers, are checked too.
+ * When a limit is exceeded, the action of the limits is applied:
+ * <ul>
+ *     <li>degrade: The plan is marked as degraded, but it keeps receiving every event (the default)</li>
+ *     <li>sample: The plan only receives one of every sample_rate input events, until its
+ *     estimated usage without sampling is under the limits again</li>
+ *     <li>suspend: The plan stops receiving events, until its usage stays under the limits
+ *     for resume_after_s seconds or it is replaced by a newer version</li>
+ * </ul>
+ * <p>The events are accepted by the lane that executes the plan without locking, and the
+ * windows are accounted and checked under the lock of this object. The stats can be read
+ * from any thread.
+ *
+ * @see SiddhiPlan
+ */
+
+class PlanUsage {
+    private static final Logger log = LogManager.getLogger(PlanUsage.class);
+
+    // The length of the window used to compute the rates
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // The bean that gives the CPU time of the current thread, if the JVM supports it
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final boolean cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+
+    /**
+     * The states of a siddhi plan
+     */
+
+    enum State { OK, DEGRADED, SAMPLED, SUSPENDED }
+
+    /**
+     * The source of the time used to measure the windows
+     */
+
+    interface Clock {
+        // The monotonic time of the JVM
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+        /**
+         * @return the current time in nanoseconds
+         */
+
+        long nanoTime();
+    }
+
+    // The id of the plan
+    private final String id;
+
+    // The limits of the plan
+    private final Limits limits;
+
+    // The output events of the plan, counted by its callbacks
+    private final Counter outputs;
+
+    // The clock that measures the windows
+    private final Clock clock;
+
+    // The current state of the plan
+    private volatile State state = State.OK;
+
+    // The values of the current window
+    private long windowStart, windowCpu, windowEvents, windowOutputs;
+
+    // The number of events received while the plan is sampled
+    private long sampled;
+
+    // The end of the last window that exceeded the limits
+    private long lastExceeded;
+
+    // The totals of the plan
+    private volatile long cpuTotal, eventsTotal, droppedTotal;
+
+    // The rates of the last window
+    private volatile double cpuRate, eventsRate, outputsRate;
+
+    /**
+     * Creates a new accounting of a siddhi plan.
+     *
+     * @param id The id of the plan
+     * @param limits The limits of the plan
+     * @param outputs The output events of the plan
+     */
+
+    PlanUsage(String id, Limits limits, Counter outputs) {
+        this(id, limits, outputs, Clock.SYSTEM);
+    }
+
+    /**
+     * Creates a new accounting of a siddhi plan that measures the windows with the given clock.
+     *
+     * @param id The id of the plan
+     * @param limits The limits of the plan
+     * @param outputs The output events of the plan
+     * @param clock The clock that measures the windows
+     */
+
+    PlanUsage(String id, Limits limits, Counter outputs, Clock clock) {
+        this.id = id;
+        this.limits = limits;
+        this.outputs = outputs;
+        this.clock = clock;
+        this.windowStart = clock.nanoTime();
+        this.windowOutputs = outputs.get();
+    }
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds, or the wall-clock
+     *         time if the JVM can't measure the CPU time
+     */
+
+    static long now() {
+        return cpuTimeSupported ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Checks if the plan must receive an input event, depending on its state.
+     *
+     * @return true if the event must be sent to the plan
+     */
+
+    boolean accept() {
+        switch (state) {
+            case SUSPENDED:
+                droppedTotal++;
+                return false;
+            case SAMPLED:
+                if (++sampled % limits.sampleRate == 0) return true;
+                droppedTotal++;
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Accounts the events sent to the plan, and evaluates the limits if the window is over.
+     *
+     * @param cpuNanos The CPU time spent sending the events
+     * @param events The number of events sent
+     */
+
+    synchronized void record(long cpuNanos, int events) {
+        windowCpu += cpuNanos;
+        windowEvents += events;
+        cpuTotal += cpuNanos;
+        eventsTotal += events;
+
+        check();
+    }
+
+    /**
+     * Evaluates the limits if the window is over, even if the plan hasn't received events.
+     */
+
+    synchronized void check() {
+        long now = clock.nanoTime();
+        if (now - windowStart >= WINDOW_NANOS) evaluate(now);
+    }
+
+    /**
+     * Computes the rates of the window that has just finished, and updates the state
+     * of the plan if its limits were exceeded or it is under them again.
+     *
+     * @param now The end of the window
+     */
+
+    private void evaluate(long now) {
+        double seconds = (now - windowStart) / (double) WINDOW_NANOS;
+        long currentOutputs = outputs.get();
+
+        cpuRate = windowCpu / 1e6 / seconds;
+        eventsRate = windowEvents / seconds;
+        outputsRate = (currentOutputs - windowOutputs) / seconds;
+
+        windowStart = now;
+        windowCpu = 0;
+        windowEvents = 0;
+        windowOutputs = currentOutputs;
+
+        // A sampled plan would use sample_rate times more resources without sampling
+        double scale = state == State.SAMPLED ? limits.sampleRate : 1;
+        boolean exceeded = (limits.maxCpu > 0 && cpuRate * scale > limits.maxCpu) ||
+                (limits.maxOutputRate > 0 && outputsRate * scale > limits.maxOutputRate);
+
+        if (exceeded) lastExceeded = now;
+
+        // A suspended plan doesn't use resources, so it must stay under its limits for a while
+        if (state == State.SUSPENDED) {
+            if (!exceeded && limits.resumeAfter > 0 && now - lastExceeded >= limits.resumeAfter) {
+                log.info("Siddhi plan {} has been under its limits for {} s, it is resumed",
+                        id, TimeUnit.NANOSECONDS.toSeconds(limits.resumeAfter));
+                state = State.OK;
+            }
+        } else if (exceeded && state != limits.action) {
+            log.warn("Siddhi plan {} exceeded its limits ({} cpu ms/s, {} outputs/s), it is now {}",
+                    id, Math.round(cpuRate * scale), Math.round(outputsRate * scale), limits.action);
+            state = limits.action;
+        } else if (!exceeded && state != State.OK) {
+            log.info("Siddhi plan {} is under its limits again", id);
+            state = State.OK;
+        }
+    }
+
+    /**
+     * @return the current state of the plan
+     */
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * @return the map representation of the stats of the plan
+     */
+
+    Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("state", state.name().toLowerCase());
+        result.put("cpu_ms_per_s", cpuRate);
+        result.put("events_per_s", eventsRate);
+        result.put("outputs_per_s", outputsRate);
+        result.put("cpu_ms", TimeUnit.NANOSECONDS.toMillis(cpuTotal));
+        result.put("events", eventsTotal);
+        result.put("outputs", outputs.get());
+        result.put("dropped", droppedTotal);
+        return result;
+    }
+
+    /**
+     * This class represents the limits of a siddhi plan. The limits are read from a map
+     * with the following keys, and a missing or zero limit means that there is no limit:
+     * <ul>
+     *     <li>max_cpu_ms: The CPU milliseconds per second that the plan can use</li>
+     *     <li>max_output_rate: The output events per second that the plan can produce</li>
+     *     <li>action: What to do when a limit is exceeded: degrade, sample or suspend</li>
+     *     <li>sample_rate: The plan receives one of every sample_rate events when it is sampled, 10 by default</li>
+     *     <li>resume_after_s: The seconds that a suspended plan must stay under the limits to be resumed,
+     *     60 by default. Zero means that the plan is suspended until it is replaced by a newer version.</li>
+     * </ul>
+     */
+
+    static class Limits {
+        // No limits, the plan is never degraded
+        static final Limits NONE = new Limits(0, 0, State.DEGRADED, 10, 0);
+
+        private final double maxCpu, maxOutputRate;
+        private final State action;
+        private final int sampleRate;
+        private final long resumeAfter;
+
+        private Limits(double maxCpu, double maxOutputRate, State action, int sampleRate, long resumeAfter) {
+            this.maxCpu = maxCpu;
+            this.maxOutputRate = maxOutputRate;
+            this.action = action;
+            this.sampleRate = sampleRate;
+            this.resumeAfter = resumeAfter;
+        }
+
+        /**
+         * Reads the limits from the given maps. The values of each map override
+         * the values of the previous ones, so the config file defaults can be
+         * followed by the limits of a rule.
+         *
+         * @param maps The maps with the limits, that can be null
+         * @return The limits
+         * @throws TransformException if any limit is invalid
+         */
+
+        @SafeVarargs
+        static Limits of(Map<String, Object>... maps) throws TransformException {
+            Map<String, Object> merged = new HashMap<>();
+            for (Map<String, Object> map : maps) {
+                if (map != null) merged.putAll(map);
+            }
+
+            if (merged.isEmpty()) return NONE;
+
+            try {
+                double maxCpu = toDouble(merged.get("max_cpu_ms"));
+                double maxOutputRate = toDouble(merged.get("max_output_rate"));
+                int sampleRate = (int) toDouble(merged.containsKey("sample_rate") ? merged.get("sample_rate") : 10);
+                double resumeAfter = toDouble(merged.containsKey("resume_after_s") ? merged.get("resume_after_s") : 60);
+                Object action = merged.containsKey("action") ? merged.get("action") : "degrade";
+
+                if (sampleRate < 1) throw new TransformException("sample_rate must be greater than zero");
+                if (resumeAfter < 0) throw new TransformException("resume_after_s can't be negative");
+                long resumeAfterNanos = (long) (resumeAfter * TimeUnit.SECONDS.toNanos(1));
+
+                switch (action.toString().toLowerCase()) {
+                    case "degrade":
+                        return new Limits(maxCpu, maxOutputRate, State.DEGRADED, sampleRate, resumeAfterNanos);
+                    case "sample":
+                        return new Limits(maxCpu, maxOutputRate, State.SAMPLED, sampleRate, resumeAfterNanos);
+                    case "suspend":
+                        return new Limits(maxCpu, maxOutputRate, State.SUSPENDED, sampleRate, resumeAfterNanos);
+                    default:
+                        throw new TransformException("invalid limits action " + action);
+                }
+            } catch (NumberFormatException e) {
+                throw new TransformException("invalid value for field limits", e);
+            }
+        }
+
+        private static double toDouble(Object value) {
+            return value == null ? 0 : Double.valueOf(value.toString());
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package net.redborder.cep.siddhi;
 
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.sinks.RowMap;
+import net.redborder.cep.sinks.SinkRoute;
 import net.redborder.cep.sinks.SinksManager;
 import org.wso2.siddhi.core.event.Event;
 import org.wso2.siddhi.core.stream.output.StreamCallback;
 import org.wso2.siddhi.query.api.definition.Attribute;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -37,23 +40,65 @@ public class SiddhiCallback {
      * @return A StreamCallback that Siddhi will use to send events
      */
 
-    public StreamCallback getCallback(final String streamName, final String topic, final List<Attribute> attributes) {
+    public StreamCallback getCallback(String streamName, String topic, List<Attribute> attributes) {
+        return getCallback(streamName, topic, attributes, null);
+    }
+
+    /**
+     * Gets the callback that Siddhi will use to output messages to the given sinks.
+     * The sinks are resolved once, when the callback is created.
+     *
+     * @param streamName The stream that produced the message
+     * @param topic The destination topic for that message
+     * @param attributes Attributes from the message, which stores both attributes names and values.
+     * @param sinkNames The names of the sinks that will receive the messages, or null to send them
+     *                  to every sink that accepts the stream
+     * @return A StreamCallback that Siddhi will use to send events
+     * @see SinksManager#route(String, String, List)
+     */
+
+    public StreamCallback getCallback(String streamName, String topic, List<Attribute> attributes,
+                                      List<String> sinkNames) {
+        return getCallback(streamName, topic, attributes, sinkNames, new Counter());
+    }
+
+    /**
+     * Gets the callback that Siddhi will use to output messages to the given sinks,
+     * counting the messages produced.
+     *
+     * @param streamName The stream that produced the message
+     * @param topic The destination topic for that message
+     * @param attributes Attributes from the message, which stores both attributes names and values.
+     * @param sinkNames The names of the sinks that will receive the messages, or null to send them
+     *                  to every sink that accepts the stream
+     * @param outputs The counter of the messages produced
+     * @return A StreamCallback that Siddhi will use to send events
+     * @see SinksManager#route(String, String, List)
+     */
+
+    public StreamCallback getCallback(final String streamName, final String topic, final List<Attribute> attributes,
+                                      List<String> sinkNames, final Counter outputs) {
+        final SinkRoute route = sinksManager.route(streamName, topic, sinkNames);
+
+        // The attribute names are shared by every message of the stream
+        List<String> names = new ArrayList<>(attributes.size());
+        for (Attribute attribute : attributes) {
+            names.add(attribute.getName());
+        }
+
+        final RowMap.Schema schema = new RowMap.Schema(names);
+
         return new StreamCallback() {
             @Override
             public void receive(Event[] events) {
+                outputs.add(events.length);
+
                 for (Event event : events) {
-                    // This map will store the final message
-                    Map<String, Object> result = new HashMap<>();
-
-                    // Get all the attributes values from the list of attributes
-                    int index = 0;
-                    for (Object object : event.getData()) {
-                        String columnName = attributes.get(index++).getName();
-                        result.put(columnName, object);
-                    }
-
-                    // Send the message to every sink
-                    sinksManager.process(streamName, topic, result);
+                    // The message is a map view over the event values
+                    Map<String, Object> result = new RowMap(schema, event.getData());
+
+                    // Send the message to the sinks of the stream
+                    route.process(streamName, topic, result);
                 }
             }
         };
@@ -1,6 +1,7 @@
 package net.redborder.cep.siddhi;
 
 import com.lmax.disruptor.EventHandler;
+import net.redborder.cep.metrics.Metrics;
 import net.redborder.cep.rest.RestListener;
 import net.redborder.cep.rest.exceptions.RestException;
 import net.redborder.cep.rest.exceptions.RestInvalidException;
@@ -10,7 +11,7 @@ import net.redborder.cep.sinks.console.ConsoleSink;
 import net.redborder.cep.siddhi.exceptions.AlreadyExistsException;
 import net.redborder.cep.siddhi.exceptions.ExecutionPlanException;
 import net.redborder.cep.siddhi.exceptions.InvalidExecutionPlanException;
-import net.redborder.cep.sources.disruptor.MapEvent;
+import net.redborder.cep.sources.disruptor.RowEvent;
 import net.redborder.cep.util.ConfigData;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,11 +20,15 @@ import org.wso2.siddhi.core.SiddhiManager;
 import org.wso2.siddhi.query.compiler.exception.SiddhiParserException;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class handles the state of the correlation engine, which is Siddhi.
@@ -35,9 +40,12 @@ import java.util.*;
  * @see SiddhiManager
  */
 
-public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
+public class SiddhiHandler implements RestListener, EventHandler<RowEvent> {
     private final Logger log = LogManager.getLogger(SiddhiHandler.class);
 
+    // The extension of the files that store the snapshots of the siddhi plans
+    private static final String SNAPSHOT_EXTENSION = ".snapshot";
+
     // The manager that we use as the interface to Siddhi
     private SiddhiManager siddhiManager;
 
@@ -47,9 +55,28 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
     // An object to parse JSON messages
     private ObjectMapper objectMapper;
 
-    // The list of siddhi plans that are currently running
+    // The list of siddhi plans that are currently running. It's changed under the lock
+    // of this handler, and it can be iterated without it to check the limits of the plans.
     private Map<String, SiddhiPlan> siddhiPlans;
 
+    // The lanes that execute the siddhi plans. Each lane has its own routing index,
+    // that is rebuilt every time the list of siddhi plans changes.
+    private SiddhiLane[] lanes;
+
+    // The store that persists the list of siddhi plans, or null if there is no state file
+    private final StateStore stateStore;
+
+    // The siddhi plans added and removed since the state was persisted, by id.
+    // They are persisted once per operation, when the operation finishes.
+    private final Map<String, Map<String, Object>> addedPlans = new LinkedHashMap<>();
+    private final Set<String> removedPlans = new LinkedHashSet<>();
+
+    // The pool that compiles the siddhi plans in parallel
+    private final ExecutorService compilePool;
+
+    // The thread that checks the limits of the siddhi plans every second
+    private final ScheduledExecutorService usageChecker;
+
     /**
      * Creates a new Siddhi Handler.
      *
@@ -57,10 +84,47 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
      */
 
     public SiddhiHandler(SinksManager sinksManager) {
-        this.siddhiManager = new SiddhiManager();
+        this(sinksManager, new SiddhiManager());
+    }
+
+    /**
+     * Creates a new Siddhi Handler that creates the runtimes of the siddhi plans with the given manager.
+     *
+     * @param sinksManager The sink manager that will process the messages that Siddhi generates
+     * @param siddhiManager The manager that we use as the interface to Siddhi
+     */
+
+    SiddhiHandler(SinksManager sinksManager, SiddhiManager siddhiManager) {
+        this.siddhiManager = siddhiManager;
         this.siddhiCallback = new SiddhiCallback(sinksManager);
         this.objectMapper = new ObjectMapper();
-        this.siddhiPlans = new HashMap<>();
+        this.siddhiPlans = new ConcurrentHashMap<>();
+        this.lanes = new SiddhiLane[Math.max(1, ConfigData.getSiddhiLanes())];
+        this.compilePool = new ForkJoinPool(Math.max(1, ConfigData.getSiddhiCompileThreads()));
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new SiddhiLane(i);
+        }
+
+        String stateFile = ConfigData.getStateFile();
+        this.stateStore = stateFile == null ? null :
+                new StateStore(Paths.get(stateFile), ConfigData.getStateJournal(), ConfigData.getStateJournalMaxRecords());
+
+        this.usageChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "siddhi-limits");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        usageChecker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkUsage();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
     }
 
     /**
@@ -84,6 +148,27 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
         for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
             siddhiPlan.stop();
         }
+
+        compilePool.shutdown();
+        usageChecker.shutdown();
+    }
+
+    /**
+     * Evaluates the limits of the siddhi plans that are currently running. The lanes
+     * evaluate them when they send events to the plans, and this method evaluates them
+     * for the plans that don't receive events.
+     *
+     * @see SiddhiPlan#checkUsage()
+     */
+
+    void checkUsage() {
+        for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
+            try {
+                siddhiPlan.checkUsage();
+            } catch (RuntimeException e) {
+                log.error("Couldn't check the limits of siddhi plan {}", siddhiPlan.getId(), e);
+            }
+        }
     }
 
     /**
@@ -99,29 +184,121 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
     }
 
     /**
-     * This method is called every time that a message is received by any
-     * source that is currently started on the application.
-     * <p>This method forwards each message received to every siddhi plan
-     * that has marked the message's stream as an input stream.
+     * Returns the lanes that execute the siddhi plans. Each lane must be registered
+     * as a different consumer of the sources, so the lanes run in parallel.
+     *
+     * @return The lanes of this handler
+     * @see SiddhiLane
+     */
+
+    public SiddhiLane[] getLanes() {
+        return lanes;
+    }
+
+    /**
+     * This method forwards the message to every lane, one after another.
+     * <p>It lets this handler be used as the single consumer of a source, running
+     * all the siddhi plans on the same thread. To run the lanes in parallel, use
+     * {@link #getLanes()} instead.
      *
-     * @param mapEvent The message received from the source
+     * @param rowEvent The message received from the source
      * @param sequence unused
      * @param endOfBatch unused
      * @throws Exception if there is an error when an siddhi plans read the message
      */
 
     @Override
-    public void onEvent(MapEvent mapEvent, long sequence, boolean endOfBatch) throws Exception {
-        if (!siddhiPlans.isEmpty()) {
-            Map<String, Object> data = mapEvent.getData();
-            String topic = mapEvent.getSource();
-
-            for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
-                if (siddhiPlan.getInput().contains(topic)) {
-                    siddhiPlan.send(topic, data);
+    public void onEvent(RowEvent rowEvent, long sequence, boolean endOfBatch) throws Exception {
+        for (SiddhiLane lane : lanes) {
+            lane.onEvent(rowEvent, sequence, endOfBatch);
+        }
+    }
+
+    /**
+     * Returns the index of the lane that will execute the given siddhi plan.
+     * The siddhi plans are sharded across the lanes by the hash of their id.
+     *
+     * @param siddhiPlan The siddhi plan
+     * @return The index of the lane
+     */
+
+    private int laneOf(SiddhiPlan siddhiPlan) {
+        return (siddhiPlan.getId().hashCode() & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    /**
+     * Rebuilds the routing index of each lane from the list of siddhi plans that are
+     * currently running, and replaces the previous ones. The routing index stores the
+     * route to the siddhi plans of the lane that have each stream as input, at the position
+     * of the stream id. The plans with the same filters on a stream share their group of the route.
+     * <p>This method must be called every time a siddhi plan is added or removed.
+     */
+
+    private synchronized void updateRoutes() {
+        List<List<List<SiddhiPlan>>> plansByLane = new ArrayList<>();
+        for (int lane = 0; lane < lanes.length; lane++) {
+            List<List<SiddhiPlan>> plansByStream = new ArrayList<>();
+            for (int i = 0; i < StreamSchema.count(); i++) {
+                plansByStream.add(new ArrayList<SiddhiPlan>());
+            }
+
+            plansByLane.add(plansByStream);
+        }
+
+        for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
+            List<List<SiddhiPlan>> plansByStream = plansByLane.get(laneOf(siddhiPlan));
+
+            for (String topic : siddhiPlan.getInput()) {
+                StreamSchema schema = StreamSchema.of(topic);
+                if (schema != null) {
+                    plansByStream.get(schema.getId()).add(siddhiPlan);
+                }
+            }
+        }
+
+        for (int lane = 0; lane < lanes.length; lane++) {
+            List<List<SiddhiPlan>> plansByStream = plansByLane.get(lane);
+            StreamRoute[] routes = new StreamRoute[plansByStream.size()];
+
+            for (int i = 0; i < routes.length; i++) {
+                routes[i] = toRoute(i, plansByStream.get(i));
+            }
+
+            lanes[lane].setRoutes(routes);
+        }
+    }
+
+    /**
+     * Builds the route of a stream to the given siddhi plans, grouping them by their filters.
+     *
+     * @param streamId The id of the stream
+     * @param plans The siddhi plans that have the stream as input
+     * @return The route to the siddhi plans
+     */
+
+    private StreamRoute toRoute(int streamId, List<SiddhiPlan> plans) {
+        if (plans.isEmpty()) return StreamRoute.EMPTY;
+
+        List<SiddhiPlan> unfiltered = new ArrayList<>();
+        Map<InputFilter, List<SiddhiPlan>> filtered = new LinkedHashMap<>();
+
+        for (SiddhiPlan siddhiPlan : plans) {
+            InputFilter filter = siddhiPlan.getInputFilter(streamId);
+
+            if (filter == null) {
+                unfiltered.add(siddhiPlan);
+            } else {
+                List<SiddhiPlan> group = filtered.get(filter);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    filtered.put(filter, group);
                 }
+
+                group.add(siddhiPlan);
             }
         }
+
+        return new StreamRoute(unfiltered, filtered);
     }
 
     /**
@@ -156,31 +333,212 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
     public synchronized void add(SiddhiPlan siddhiPlan) throws ExecutionPlanException {
         // Check if there is a plan already running with that ID
         SiddhiPlan present = siddhiPlans.get(siddhiPlan.getId());
-        boolean mustBeRemoved = false;
 
         // If it is already present, check the version.
         // If the version of the siddhi plan already running is equal or greater, then throw an exception
-        if (present != null) {
-            if (present.getVersion() >= siddhiPlan.getVersion()) {
-                throw new AlreadyExistsException("siddhi plan with id " + siddhiPlan.getId() + " already exists with an equal or greater version");
-            } else {
-                mustBeRemoved = true;
-            }
+        if (present != null && present.getVersion() >= siddhiPlan.getVersion()) {
+            throw new AlreadyExistsException("siddhi plan with id " + siddhiPlan.getId() + " already exists with an equal or greater version");
         }
 
         // Add the siddhi plan
+        log.info("Adding new siddhi plan: {}", siddhiPlan.toMap());
+        List<SiddhiPlan> newer = Collections.singletonList(siddhiPlan);
+        compile(newer);
+        register(newer, Collections.<String>emptySet());
+        persist();
+    }
+
+    /**
+     * Compiles the siddhi plans given in parallel, on the compile pool. If any of them
+     * can't be compiled, the ones that were compiled are discarded, so either every
+     * plan is compiled or none is.
+     *
+     * @param newer The siddhi plans to compile
+     * @throws ExecutionPlanException if the execution plan of any siddhi plan is invalid
+     * @see SiddhiPlan#compile(SiddhiManager, SiddhiCallback)
+     */
+
+    private void compile(List<SiddhiPlan> newer) throws ExecutionPlanException {
+        List<Callable<Void>> tasks = new ArrayList<>(newer.size());
+
+        for (final SiddhiPlan siddhiPlan : newer) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws ExecutionPlanException {
+                    try {
+                        siddhiPlan.compile(siddhiManager, siddhiCallback);
+                        return null;
+                    } catch (SiddhiParserException e) {
+                        throw new InvalidExecutionPlanException("invalid siddhi execution plan " +
+                                siddhiPlan.getId() + ": " + e.getMessage(), e);
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        List<Future<Void>> results;
+
         try {
-            log.info("Adding new siddhi plan: {}", siddhiPlan.toMap());
+            results = compilePool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionPlanException("interrupted while compiling the siddhi plans", e);
+        }
 
-            siddhiPlan.start(siddhiManager, siddhiCallback);
-            siddhiPlans.put(siddhiPlan.getId(), siddhiPlan);
-            save();
+        // Wait for every plan, and keep the first failure in the order of the plans
+        List<SiddhiPlan> compiled = new ArrayList<>(newer.size());
+        Throwable failure = null;
 
-            if (mustBeRemoved) {
-                present.stop();
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+                compiled.add(newer.get(i));
+            } catch (ExecutionException e) {
+                if (failure == null) failure = unwrap(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) failure = new ExecutionPlanException("interrupted while compiling the siddhi plans", e);
             }
-        } catch (SiddhiParserException e) {
-            throw new InvalidExecutionPlanException("invalid siddhi execution plan", e);
+        }
+
+        if (failure != null) {
+            discard(compiled);
+            if (failure instanceof ExecutionPlanException) throw (ExecutionPlanException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+            throw new ExecutionPlanException(failure.getMessage(), failure);
+        }
+
+        log.info("Compiled {} siddhi plans in {} ms", newer.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Gets the exception thrown by a compile task. The compile pool wraps the checked
+     * exceptions of the tasks into runtime exceptions, so the first ExecutionPlanException
+     * of the causes is returned, or the exception itself if there is none.
+     *
+     * @param failure The exception of the task
+     * @return The exception thrown by the task
+     */
+
+    private static Throwable unwrap(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ExecutionPlanException) return cause;
+        }
+
+        return failure;
+    }
+
+    /**
+     * Discards siddhi plans that were compiled but not registered, and the metrics
+     * of the ones that don't have another version running.
+     *
+     * @param compiled The siddhi plans to discard
+     */
+
+    private void discard(List<SiddhiPlan> compiled) {
+        for (SiddhiPlan siddhiPlan : compiled) {
+            siddhiPlan.stop();
+            if (!siddhiPlans.containsKey(siddhiPlan.getId())) Metrics.remove(SiddhiPlan.metricNames(siddhiPlan.getId()));
+        }
+    }
+
+    /**
+     * Starts the siddhi plans given, which must be compiled, and replaces the running siddhi plans
+     * with them in a single step. The lanes affected don't process any batch while the plans are
+     * replaced, so every event is processed either by the previous plans or by the new ones.
+     *
+     * @param newer The compiled siddhi plans to start
+     * @param removed The ids of the running siddhi plans to remove
+     */
+
+    private void register(List<SiddhiPlan> newer, Collection<String> removed) {
+        try {
+            for (SiddhiPlan siddhiPlan : newer) {
+                siddhiPlan.start();
+            }
+        } catch (RuntimeException e) {
+            discard(newer);
+            throw e;
+        }
+
+        // Lock the lanes in order, so the plans are swapped between two batches of each lane
+        Set<Integer> lockedLanes = new TreeSet<>();
+        for (SiddhiPlan siddhiPlan : newer) lockedLanes.add(laneOf(siddhiPlan));
+        for (String id : removed) {
+            if (siddhiPlans.containsKey(id)) lockedLanes.add(laneOf(siddhiPlans.get(id)));
+        }
+
+        List<SiddhiPlan> stopped = new ArrayList<>();
+        List<Integer> locked = new ArrayList<>();
+
+        try {
+            for (Integer lane : lockedLanes) {
+                lanes[lane].lockBatches();
+                locked.add(lane);
+            }
+
+            for (SiddhiPlan siddhiPlan : newer) {
+                SiddhiPlan present = siddhiPlans.put(siddhiPlan.getId(), siddhiPlan);
+
+                if (present != null) {
+                    if (siddhiPlan.isCompatibleWith(present)) handOver(present, siddhiPlan);
+                    stopped.add(present);
+                }
+            }
+
+            for (String id : removed) {
+                SiddhiPlan present = siddhiPlans.remove(id);
+                if (present != null) stopped.add(present);
+            }
+
+            updateRoutes();
+        } finally {
+            for (int i = locked.size() - 1; i >= 0; i--) {
+                lanes[locked.get(i)].unlockBatches();
+            }
+        }
+
+        // Record the changes, to persist them when the operation finishes
+        for (SiddhiPlan siddhiPlan : newer) {
+            removedPlans.remove(siddhiPlan.getId());
+            addedPlans.put(siddhiPlan.getId(), siddhiPlan.toMap());
+        }
+
+        for (String id : removed) {
+            addedPlans.remove(id);
+            removedPlans.add(id);
+        }
+
+        for (SiddhiPlan siddhiPlan : stopped) {
+            siddhiPlan.stop();
+        }
+
+        for (String id : removed) {
+            Metrics.remove(SiddhiPlan.metricNames(id));
+            log.info("Siddhi plan with the id {} has been removed", id);
+        }
+
+        log.info("Current queries: {}", siddhiPlans.keySet());
+    }
+
+    /**
+     * Transfers the state of a siddhi plan to its new version. If the state can't be
+     * transferred, the new version starts without state.
+     *
+     * @param present The siddhi plan that is running
+     * @param newer The new version of the siddhi plan
+     */
+
+    private void handOver(SiddhiPlan present, SiddhiPlan newer) {
+        try {
+            newer.restore(present.snapshot());
+            log.info("Transferred the state of siddhi plan {} from version {} to version {}",
+                    newer.getId(), present.getVersion(), newer.getVersion());
+        } catch (RuntimeException e) {
+            log.warn("Couldn't transfer the state of siddhi plan " + newer.getId() + ", starting without state", e);
         }
     }
 
@@ -193,15 +551,10 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
 
     @Override
     public synchronized void remove(String id) throws RestException {
-        SiddhiPlan siddhiPlan = siddhiPlans.get(id);
-
-        if (siddhiPlan != null) {
-            siddhiPlan.stop();
-            siddhiPlans.remove(id);
-            save();
-
-            log.info("Siddhi plan with the id {} has been removed", id);
-            log.info("Current queries: {}", siddhiPlans.keySet());
+        if (siddhiPlans.containsKey(id)) {
+            // Remove the plan between two batches of its lane, like the plans are added
+            register(Collections.<SiddhiPlan>emptyList(), Collections.singleton(id));
+            persist();
         } else {
             throw new RestNotFoundException("Siddhi plan with id " + id + " is not present");
         }
@@ -209,6 +562,7 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
 
     /**
      * Synchronizes the list of elements provided.
+     * The state is persisted once, after every siddhi plan has been added or removed.
      *
      * @param elements A list of elements to synchronize
      * @throws RestException
@@ -217,23 +571,38 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
 
     @Override
     public synchronized void synchronize(List<Map<String, Object>> elements) throws RestException {
-        Map<String, SiddhiPlan> newExecutionPlans = new HashMap<>();
+        try {
+            doSynchronize(elements);
+        } finally {
+            persist();
+        }
+    }
+
+    /**
+     * Adds the siddhi plans of the list that are new or newer than the ones running,
+     * and removes the ones running that are not on the list, without persisting the state.
+     * The new plans are compiled in parallel, and then every change is applied in a single
+     * step, so if any plan is invalid the running plans are left untouched.
+     *
+     * @param elements A list of elements to synchronize
+     * @throws RestException if any element is invalid or couldn't be added
+     */
+
+    private void doSynchronize(List<Map<String, Object>> elements) throws RestException {
+        Map<String, SiddhiPlan> newExecutionPlans = new TreeMap<>();
         Set<String> executionPlansToKeep = new TreeSet<>();
 
-        // Check that all the execution plans are valid
+        // Check that all the elements are siddhi plans with different ids
         for (Map<String, Object> element : elements) {
             try {
                 SiddhiPlan siddhiPlan = SiddhiPlan.fromMap(element);
                 if (!newExecutionPlans.containsKey(siddhiPlan.getId())) {
-                    siddhiManager.validateExecutionPlan(siddhiPlan.getFullExecutionPlan());
                     newExecutionPlans.put(siddhiPlan.getId(), siddhiPlan);
                 } else {
                     throw new AlreadyExistsException("execution plans with id " + siddhiPlan.getId() + " was specified twice");
                 }
             } catch (ExecutionPlanException e) {
                 throw new RestInvalidException(e.getMessage(), e);
-            } catch (SiddhiParserException e) {
-                throw new RestInvalidException("invalid siddhi rule: " + e.getMessage(), e);
             }
         }
 
@@ -252,34 +621,25 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
             }
         }
 
-        // Add the newer elements
-        newExecutionPlansIds = new TreeSet<>(newExecutionPlans.keySet());
+        // Compile the newer elements, which also validates them
+        List<SiddhiPlan> newer = new ArrayList<>(newExecutionPlans.values());
+        executionPlansToKeep.addAll(newExecutionPlans.keySet());
 
-        for (String id : newExecutionPlansIds) {
-            SiddhiPlan newer = newExecutionPlans.get(id);
-
-            try {
-                add(newer);
-                executionPlansToKeep.add(id);
-            } catch (ExecutionPlanException e) {
-                throw new RestInvalidException(e.getMessage(), e);
-            }
+        try {
+            compile(newer);
+        } catch (ExecutionPlanException e) {
+            throw new RestInvalidException(e.getMessage(), e);
         }
 
-        // Now remove the ones that are not necessary anymore
-        presentExecutionPlansIds = new TreeSet<>(siddhiPlans.keySet());
+        // Start the newer elements and remove the ones that are not necessary anymore at once
         presentExecutionPlansIds.removeAll(executionPlansToKeep);
-
-        for (String id : presentExecutionPlansIds) {
-           remove(id);
-        }
-
-        // Save the new state
-        save();
+        register(newer, presentExecutionPlansIds);
     }
 
     /**
-     * @return A list of the currently running siddhi plans
+     * @return A list of the currently running siddhi plans, with the stats
+     *         of the resources used by each one
+     * @see SiddhiPlan#getStats()
      */
 
     @Override
@@ -287,7 +647,9 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
         List<Map<String, Object>> listQueries = new ArrayList<>();
 
         for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
-            listQueries.add(siddhiPlan.toMap());
+            Map<String, Object> siddhiPlanMap = siddhiPlan.toMap();
+            siddhiPlanMap.put("stats", siddhiPlan.getStats());
+            listQueries.add(siddhiPlanMap);
         }
 
         return listQueries;
@@ -296,26 +658,117 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
     /**
      * Stores the list of currently running siddhi plans into an state file.
      * The path to the state file is provided by the config file.
+     *
+     * @see StateStore#save(Collection)
      */
 
     public synchronized void save() {
-        String stateFilePath = ConfigData.getStateFile();
-        if (stateFilePath == null) return;
+        if (stateStore == null) return;
+
+        try {
+            stateStore.save(toMaps());
+        } catch (IOException e) {
+            log.error("Couldn't write the state file", e);
+        }
+    }
+
+    /**
+     * Persists the siddhi plans added and removed since the last time that the state was
+     * persisted, appending them to the journal of the state file if it is enabled.
+     *
+     * @see StateStore#update(Collection, Collection, Collection)
+     */
+
+    private void persist() {
+        if (stateStore != null) {
+            try {
+                stateStore.update(toMaps(), addedPlans.values(), removedPlans);
+            } catch (IOException e) {
+                log.error("Couldn't write the state file", e);
+            }
+        }
 
+        addedPlans.clear();
+        removedPlans.clear();
+    }
+
+    /**
+     * @return the map representation of each siddhi plan currently running
+     */
+
+    private List<Map<String, Object>> toMaps() {
         List<Map<String, Object>> executionPlansList = new ArrayList<>();
 
         for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
-            Map<String, Object> executionPlanMap = siddhiPlan.toMap();
-            executionPlansList.add(executionPlanMap);
+            executionPlansList.add(siddhiPlan.toMap());
+        }
+
+        return executionPlansList;
+    }
+
+    /**
+     * Writes a snapshot of the state of each siddhi plan currently running into the given
+     * directory, and deletes the snapshots of the plans that are not running anymore.
+     * <p>Each snapshot is written to a temporary file that replaces the previous
+     * snapshot once it is complete, so a crash never leaves a partial snapshot.
+     *
+     * @param directory The directory where the snapshots are stored
+     * @throws IOException if a snapshot couldn't be written
+     * @see SnapshotManager
+     */
+
+    public synchronized void snapshot(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Set<String> fileNames = new HashSet<>();
+
+        for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
+            String fileName = snapshotFileName(siddhiPlan);
+            Path temp = directory.resolve(fileName + ".tmp");
+            Files.write(temp, siddhiPlan.snapshot());
+            Files.move(temp, directory.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fileNames.add(fileName);
+        }
+
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory, "*" + SNAPSHOT_EXTENSION)) {
+            for (Path snapshot : snapshots) {
+                if (!fileNames.contains(snapshot.getFileName().toString())) Files.delete(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Restores the state of each siddhi plan currently running from its snapshot on the given
+     * directory, if there is a snapshot of the same version of the plan.
+     *
+     * @param directory The directory where the snapshots are stored
+     */
+
+    public synchronized void restoreSnapshots(Path directory) {
+        for (SiddhiPlan siddhiPlan : siddhiPlans.values()) {
+            Path snapshot = directory.resolve(snapshotFileName(siddhiPlan));
+            if (!Files.exists(snapshot)) continue;
+
+            try {
+                siddhiPlan.restore(Files.readAllBytes(snapshot));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Couldn't restore the state of siddhi plan " + siddhiPlan.getId(), e);
+            }
         }
+    }
 
+    /**
+     * Returns the name of the file that stores the snapshots of a siddhi plan.
+     * The name includes the version, so a snapshot is never restored into another version.
+     *
+     * @param siddhiPlan The siddhi plan
+     * @return The file name
+     */
+
+    private String snapshotFileName(SiddhiPlan siddhiPlan) {
         try {
-            String listString = objectMapper.writeValueAsString(executionPlansList);
-            PrintWriter writer = new PrintWriter(stateFilePath, "UTF-8");
-            writer.print(listString);
-            writer.close();
-        } catch (IOException e) {
-            log.error("Couldn't write the state file");
+            return URLEncoder.encode(siddhiPlan.getId(), "UTF-8") + "-" + siddhiPlan.getVersion() + SNAPSHOT_EXTENSION;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
         }
     }
 
@@ -324,20 +777,19 @@ public class SiddhiHandler implements RestListener, EventHandler<MapEvent> {
      */
 
     public synchronized void restore() {
-        String stateFilePath = ConfigData.getStateFile();
-        if (stateFilePath == null) return;
+        if (stateStore == null) return;
 
         try {
-            log.info("Restoring state from file {}", stateFilePath);
-            Path path = Paths.get(stateFilePath);
-            byte[] bytes = Files.readAllBytes(path);
-            String contents = new String(bytes, "UTF-8");
-            List<Map<String, Object>> executionPlanList = objectMapper.readValue(contents, List.class);
-            synchronize(executionPlanList);
+            log.info("Restoring state from file {}", ConfigData.getStateFile());
+            doSynchronize(stateStore.load());
         } catch (IOException e) {
             log.warn("Couldn't read the state file");
         } catch (RestException e) {
             log.error("Couldn't synchronize the state file", e);
+        } finally {
+            // The restored plans are already persisted
+            addedPlans.clear();
+            removedPlans.clear();
         }
     }
 }
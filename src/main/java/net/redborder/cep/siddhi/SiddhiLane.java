@@ -0,0 +1,149 @@
+package net.redborder.cep.siddhi;
+
+import com.lmax.disruptor.EventHandler;
+import net.redborder.cep.sources.disruptor.RowEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class represents an execution lane of the correlation engine.
+ * <p>The siddhi plans are sharded across a configurable number of lanes, and every
+ * lane is registered as a different consumer of the sources ring buffers, so each one
+ * runs on its own thread. A lane only forwards the events to the siddhi plans that
+ * belong to it.
+ * <p>Each source has its own ring buffer, so a lane is consumed by one thread per source.
+ * Those threads take turns: a thread holds the lane while it processes a whole batch of
+ * its ring buffer, so the siddhi plans of a lane are never executed by two threads at once.
+ *
+ * @see SiddhiHandler
+ * @see net.redborder.cep.util.ConfigData#getSiddhiLanes()
+ */
+
+public class SiddhiLane implements EventHandler<RowEvent> {
+    // The index of this lane
+    private final int index;
+
+    // The routing index of this lane, that stores the route to the siddhi plans of the lane
+    // that have each stream as input, at the position of the stream id.
+    // It is never modified, but replaced by the SiddhiHandler when the plans change.
+    private volatile StreamRoute[] routes = new StreamRoute[0];
+
+    // The siddhi plans that have pending events, that will be flushed
+    // at the end of the current batch of the ring buffer
+    private final List<SiddhiPlan> pendingPlans = new ArrayList<>();
+
+    // The lock held by the lane while it processes a batch of a ring buffer, so the threads
+    // of the different ring buffers take turns, and the SiddhiHandler can change its plans
+    // between batches, when no plan has pending events. It is fair, so no ring buffer starves.
+    private final ReentrantLock batchLock = new ReentrantLock(true);
+
+    /**
+     * Creates a new lane.
+     *
+     * @param index The index of the lane
+     */
+
+    public SiddhiLane(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the index of this lane
+     */
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Replaces the routing index of this lane.
+     *
+     * @param routes The new routing index
+     */
+
+    void setRoutes(StreamRoute[] routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * This method is called every time that a message is received by any
+     * source that is currently started on the application.
+     * <p>This method forwards each message received to every siddhi plan of
+     * this lane that has marked the message's stream as an input stream, and
+     * whose filters match the message.
+     * <p>The messages are accumulated by the siddhi plans, and they are sent to
+     * Siddhi as arrays at the end of each batch of the ring buffer, so long batches
+     * amortize the cost of each send.
+     *
+     * @param rowEvent The message received from the source
+     * @param sequence unused
+     * @param endOfBatch true if this is the last message available on the ring buffer
+     * @throws Exception if there is an error when an siddhi plans read the message
+     */
+
+    @Override
+    public void onEvent(RowEvent rowEvent, long sequence, boolean endOfBatch) throws Exception {
+        // The lock is taken at the first event of each batch, and kept until its end
+        if (!batchLock.isHeldByCurrentThread()) {
+            batchLock.lock();
+        }
+
+        boolean release = endOfBatch;
+
+        try {
+            if (rowEvent.isValid()) {
+                StreamRoute[] currentRoutes = routes;
+                int streamId = rowEvent.getSchema().getId();
+
+                if (streamId < currentRoutes.length) {
+                    currentRoutes[streamId].enqueue(streamId, System.currentTimeMillis(), rowEvent.getRow(), pendingPlans);
+                }
+            }
+        } catch (Throwable e) {
+            // The batch won't continue on this thread, so don't leave the lane locked
+            release = true;
+            throw e;
+        } finally {
+            // The rows will be reused after this batch, so send the pending events now
+            if (release) {
+                try {
+                    flush();
+                } finally {
+                    batchLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the lane has finished its current batch, and stops it from
+     * starting a new one until {@link #unlockBatches()} is called. While the lane
+     * is stopped, its plans have no pending events.
+     */
+
+    void lockBatches() {
+        batchLock.lock();
+    }
+
+    /**
+     * Lets the lane process batches again.
+     */
+
+    void unlockBatches() {
+        batchLock.unlock();
+    }
+
+    /**
+     * Sends the pending events of every siddhi plan of this lane to Siddhi.
+     */
+
+    private void flush() {
+        for (int i = 0; i < pendingPlans.size(); i++) {
+            pendingPlans.get(i).flush();
+        }
+
+        pendingPlans.clear();
+    }
+}
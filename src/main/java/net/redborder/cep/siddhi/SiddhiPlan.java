@@ -1,6 +1,9 @@
 package net.redborder.cep.siddhi;
 
 import com.google.common.base.Joiner;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.metrics.Timer;
 import net.redborder.cep.siddhi.exceptions.ExecutionPlanException;
 import net.redborder.cep.siddhi.exceptions.InvalidExecutionPlanException;
 import net.redborder.cep.siddhi.exceptions.TransformException;
@@ -9,12 +12,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.wso2.siddhi.core.ExecutionPlanRuntime;
 import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.stream.input.InputHandler;
 import org.wso2.siddhi.core.stream.output.StreamCallback;
 import org.wso2.siddhi.query.api.definition.AbstractDefinition;
 import org.wso2.siddhi.query.api.definition.Attribute;
-import org.wso2.siddhi.query.api.definition.StreamDefinition;
 
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This class represents the unit of work of the CEP.
@@ -25,35 +30,14 @@ import java.util.*;
 public class SiddhiPlan {
     private final static Logger log = LogManager.getLogger(SiddhiPlan.class);
 
-    // The list of streams definitions for every input stream defined on the config file
-    private final static Map<String, StreamDefinition> streamDefinitions = new HashMap<>();
-
-    // Get the list of available streams from the config file
-    // Also, get the Siddhi representation of this streams with their attributes
-    static {
-        Set<String> topics = ConfigData.getStreams();
-        for (String topic : topics) {
-            StreamDefinition stream = new StreamDefinition();
-            stream.setId(topic);
-
-            log.info("Creating stream definition for topic {}", topic);
-            Map<String, String> attributes = ConfigData.getAttributes(topic);
-            for (Map.Entry<String, String> entry : attributes.entrySet()) {
-                String name = entry.getKey();
-                String type = entry.getValue();
-                Attribute.Type attrType = SiddhiUtils.typeOf(type);
-
-                if (attrType != null) {
-                    stream.attribute(name, attrType);
-                    log.debug("  - {} : {}", name, type);
-                } else {
-                    log.warn("  - Incorrect type for attribute {}", name);
-                }
-            }
+    // The literals of an execution plan: quoted strings, and numbers with an optional type suffix
+    private final static Pattern LITERALS = Pattern.compile("'[^']*'|\"[^\"]*\"|\\b\\d+(\\.\\d+)?[lLfFdD]?\\b");
 
-            streamDefinitions.put(topic, stream);
-        }
-    }
+    // The windows of an execution plan, whose parameters are part of the structure of the plan
+    private final static Pattern WINDOWS = Pattern.compile("#window\\.\\w+\\s*\\([^)]*\\)");
+
+    // The annotation that names an execution plan
+    private final static Pattern PLAN_NAME = Pattern.compile("@plan\\s*:\\s*name", Pattern.CASE_INSENSITIVE);
 
     // The list of topics that this plan will use as input
     private final List<String> inputTopics;
@@ -61,9 +45,20 @@ public class SiddhiPlan {
     // A map that relates a siddhi output stream to a output topic
     private final Map<String, String> outputTopics;
 
+    // A map that relates a siddhi output stream to the names of the sinks that will receive
+    // its messages. Output streams not present on the map are sent to the sinks that accept them.
+    private final Map<String, List<String>> outputSinks;
+
     // A list of filters that will be used on the input topics
     private final Map<String, String> filters;
 
+    // The filters compiled for each input topic, at the position of the topic stream id.
+    // They are evaluated by the lanes, before the events are enqueued on the plan.
+    private final InputFilter[] inputFilters;
+
+    // The resource limits of the plan, that override the ones of the config file
+    private final Map<String, Object> limits;
+
     // The user-provided execution plan and id
     private final String executionPlan, id;
 
@@ -76,6 +71,26 @@ public class SiddhiPlan {
     // The execution plan runtime that lets you start and stop the execution plan
     private ExecutionPlanRuntime executionPlanRuntime;
 
+    // The dispatch table of the plan, resolved when the plan is compiled.
+    // It stores the input handler of each input topic at the position of the topic stream id,
+    // and null for the streams that are not an input of the plan.
+    private InputHandler[] inputHandlers = new InputHandler[0];
+
+    // The batches of events pending to be sent to each input topic, at the position of the
+    // topic stream id. They are resolved when the plan is compiled, like the input handlers.
+    private InputBatch[] inputBatches = new InputBatch[0];
+
+    // True if any of the input batches has pending events
+    private boolean pending;
+
+    // The metrics of the plan: the time spent sending events to Siddhi, and the number of events sent.
+    // They are registered when the plan is compiled, and shared by the versions of the plan.
+    private Timer sendTime;
+    private Counter events;
+
+    // The resources used by this version of the plan, created when the plan is compiled
+    private PlanUsage usage;
+
     /**
      * This method creates a new SiddhiPlan instance from a given map
      *
@@ -92,8 +107,14 @@ public class SiddhiPlan {
         Map<String, String> filters = getField(map, "filters", Collections.emptyMap(), Map.class);
         String plan = getField(map, "executionPlan", String.class);
         Integer version = getField(map, "version", 0, Integer.class);
+        Map<String, List<String>> outputSinks = getField(map, "sinks", Collections.emptyMap(), Map.class);
+        Map<String, Object> limits = getField(map, "limits", Collections.emptyMap(), Map.class);
+
+        for (Object sinkNames : outputSinks.values()) {
+            if (!(sinkNames instanceof List)) throw new TransformException("invalid type for field sinks");
+        }
 
-        return new SiddhiPlan(id, version, inputTopics, outputTopics, filters, plan);
+        return new SiddhiPlan(id, version, inputTopics, outputTopics, outputSinks, filters, limits, plan);
     }
 
     /**
@@ -174,13 +195,61 @@ public class SiddhiPlan {
     public SiddhiPlan(String id, int version, List<String> inputTopics,
                       Map<String, String> outputTopics, Map<String, String> filters,
                       String executionPlan) throws ExecutionPlanException {
+        this(id, version, inputTopics, outputTopics, Collections.<String, List<String>>emptyMap(), filters, executionPlan);
+    }
+
+    /**
+     * Creates a new Siddhi plan from parameters, with the sinks of some of its outputs
+     *
+     * @param id The unique ID
+     * @param version The version
+     * @param inputTopics List of input streams
+     * @param outputTopics Mapping from a Siddhi stream to an output
+     * @param outputSinks Mapping from a Siddhi stream to the names of the sinks that receive it
+     * @param filters A list of filters as a map
+     * @param executionPlan The user-provided execution plan
+     * @throws ExecutionPlanException if the execution plan is invalid
+     */
+
+    public SiddhiPlan(String id, int version, List<String> inputTopics,
+                      Map<String, String> outputTopics, Map<String, List<String>> outputSinks,
+                      Map<String, String> filters, String executionPlan) throws ExecutionPlanException {
+        this(id, version, inputTopics, outputTopics, outputSinks, filters,
+                Collections.<String, Object>emptyMap(), executionPlan);
+    }
+
+    /**
+     * Creates a new Siddhi plan from parameters, with the sinks of some of its outputs
+     * and its own resource limits
+     *
+     * @param id The unique ID
+     * @param version The version
+     * @param inputTopics List of input streams
+     * @param outputTopics Mapping from a Siddhi stream to an output
+     * @param outputSinks Mapping from a Siddhi stream to the names of the sinks that receive it
+     * @param filters A list of filters as a map
+     * @param limits The resource limits of the plan, that override the ones of the config file
+     * @param executionPlan The user-provided execution plan
+     * @throws ExecutionPlanException if the execution plan or the limits are invalid
+     * @see ConfigData#getPlanLimits()
+     */
+
+    public SiddhiPlan(String id, int version, List<String> inputTopics,
+                      Map<String, String> outputTopics, Map<String, List<String>> outputSinks,
+                      Map<String, String> filters, Map<String, Object> limits,
+                      String executionPlan) throws ExecutionPlanException {
+        PlanUsage.Limits.of(limits);
+
         this.id = id;
         this.version = version;
         this.inputTopics = inputTopics;
         this.outputTopics = outputTopics;
+        this.outputSinks = outputSinks;
         this.filters = filters;
+        this.limits = limits;
         this.executionPlan = executionPlan;
         this.fullExecutionPlan = build();
+        this.inputFilters = compileFilters();
     }
 
     /**
@@ -197,7 +266,9 @@ public class SiddhiPlan {
         result.put("input", inputTopics);
         result.put("version", version);
         result.put("output", outputTopics);
+        if (!outputSinks.isEmpty()) result.put("sinks", outputSinks);
         result.put("filters", filters);
+        if (!limits.isEmpty()) result.put("limits", limits);
         result.put("executionPlan", executionPlan);
         return result;
     }
@@ -234,6 +305,36 @@ public class SiddhiPlan {
         return Collections.unmodifiableMap(outputTopics);
     }
 
+    /**
+     * @return the sinks of the outputs of the siddhi plan that specify them
+     */
+
+    public Map<String, List<String>> getOutputSinks() {
+        return Collections.unmodifiableMap(outputSinks);
+    }
+
+    /**
+     * @return the stats of the resources used by the siddhi plan since it started
+     * @see PlanUsage
+     */
+
+    public Map<String, Object> getStats() {
+        PlanUsage currentUsage = usage;
+        return currentUsage == null ? Collections.<String, Object>emptyMap() : currentUsage.toMap();
+    }
+
+    /**
+     * Evaluates the limits of the siddhi plan if its window is over, so they are
+     * applied even when the plan doesn't receive input events.
+     *
+     * @see PlanUsage#check()
+     */
+
+    void checkUsage() {
+        PlanUsage currentUsage = usage;
+        if (currentUsage != null) currentUsage.check();
+    }
+
     /**
      * @return the user-provided execution plan of the siddhi plan
      */
@@ -243,73 +344,85 @@ public class SiddhiPlan {
     }
 
     /**
-     * Builds the execution plan from the input topics and the user-provided execution plan
+     * Builds the execution plan from the input topics and the user-provided execution plan.
+     * <p>Each input topic is defined as a stream that the events are sent to directly. The
+     * filters are not part of the execution plan, as they are evaluated by the lanes once
+     * for every plan with the same filters, before the events are sent to Siddhi.
+     * <p>The execution plan is named after the id of the plan, unless the user named it. Siddhi
+     * identifies the state of the runtime by that name, so the snapshots of a plan can be
+     * restored into a new runtime of the plan, or of a newer version of it.
      *
      * @return A string with the full siddhi-formatted execution plan
      * @throws ExecutionPlanException if any input specified is not found
+     * @see StreamRoute
      */
 
     public String build() throws ExecutionPlanException {
         StringBuilder fullExecutionPlanBuilder = new StringBuilder();
-        StringBuilder streamsWithFiltersBuilder = new StringBuilder();
+
+        if (!PLAN_NAME.matcher(executionPlan).find()) {
+            fullExecutionPlanBuilder.append("@Plan:name('")
+                    .append(id.replaceAll("[^A-Za-z0-9_.-]", "_"))
+                    .append("') ");
+        }
 
         for (String topic : inputTopics) {
-            StreamDefinition streamDefinition = streamDefinitions.get(topic);
+            StreamSchema schema = StreamSchema.of(topic);
 
-            if (streamDefinition == null) {
+            if (schema == null) {
                 throw new InvalidExecutionPlanException("No stream definition found for topic " + topic + " on execution plan id " + id + "!");
             }
 
-            List<Attribute> attributes = streamDefinition.getAttributeList();
+            List<Attribute> attributes = schema.getDefinition().getAttributeList();
             List<String> attributesWithType = new ArrayList<>();
-            List<String> attributesNameList = new ArrayList<>();
 
             for (Attribute attribute : attributes) {
                 attributesWithType.add(attribute.getName() + " " + attribute.getType());
-                attributesNameList.add(attribute.getName());
             }
 
             String attributesWithTypeList = Joiner.on(", ").join(attributesWithType);
 
-            fullExecutionPlanBuilder.append("define stream raw_")
+            fullExecutionPlanBuilder.append("define stream ")
                     .append(topic)
                     .append(" (")
                     .append(attributesWithTypeList)
                     .append(");");
+        }
 
-            List<String> filtersList = new ArrayList<>();
-            for (Map.Entry<String, String> entry : filters.entrySet()) {
-                String field = entry.getKey();
-                String value = entry.getValue();
-                filtersList.add(field + " == '" + value + "'");
-            }
+        fullExecutionPlanBuilder.append(executionPlan);
 
-            if (filtersList.isEmpty()) {
-                streamsWithFiltersBuilder.append("from raw_")
-                        .append(topic);
-            } else {
-                String filtersString = Joiner.on(" and ").join(filtersList);
+        return fullExecutionPlanBuilder.toString();
+    }
 
-                streamsWithFiltersBuilder.append("from raw_")
-                        .append(topic)
-                        .append("[")
-                        .append(filtersString)
-                        .append("]");
-            }
+    /**
+     * Compiles the filters for each input topic
+     *
+     * @return The filters of each input topic, at the position of the topic stream id
+     * @throws ExecutionPlanException if the filters are not valid for an input topic
+     */
 
-            String attributesString = Joiner.on(", ").join(attributesNameList);
+    private InputFilter[] compileFilters() throws ExecutionPlanException {
+        InputFilter[] result = new InputFilter[StreamSchema.count()];
 
-            streamsWithFiltersBuilder.append(" select ")
-                    .append(attributesString)
-                    .append(" insert into ")
-                    .append(topic)
-                    .append(";");
+        for (String topic : inputTopics) {
+            StreamSchema schema = StreamSchema.of(topic);
+            result[schema.getId()] = InputFilter.compile(schema, filters);
         }
 
-        fullExecutionPlanBuilder.append(streamsWithFiltersBuilder);
-        fullExecutionPlanBuilder.append(executionPlan);
+        return result;
+    }
 
-        return fullExecutionPlanBuilder.toString();
+    /**
+     * Gets the filters of the plan for an input stream. The events of the stream that
+     * don't match them must not be sent to the plan.
+     *
+     * @param streamId The id of the input stream
+     * @return The filters of the plan for the stream, or null if the plan doesn't filter the stream
+     * @see StreamRoute
+     */
+
+    InputFilter getInputFilter(int streamId) {
+        return streamId < inputFilters.length ? inputFilters[streamId] : null;
     }
 
     /**
@@ -322,42 +435,203 @@ public class SiddhiPlan {
     }
 
     /**
-     * Process a map as a input message for the execution plan runtime
+     * Process a row as a input message for the execution plan runtime
      *
      * @param topicName The message's stream input name
-     * @param data The message
+     * @param row The message, as a row ordered by the stream schema
+     * @see #send(int, Object[])
      */
 
-    public void send(String topicName, Map<String, Object> data) {
-        if (!inputTopics.contains(topicName)) {
+    public void send(String topicName, Object[] row) {
+        StreamSchema schema = StreamSchema.of(topicName);
+
+        if (schema == null) {
             log.warn("Received send from invalid topic {} to execution plan {} version {}", topicName, id, version);
+        } else {
+            send(schema.getId(), row);
+        }
+    }
+
+    /**
+     * Process a row as a input message for the execution plan runtime.
+     * <p>The input handler is taken from the dispatch table built when the plan started,
+     * so this method does not need to look up the stream or its attributes. The rows that
+     * don't match the filters of the plan are ignored, unlike on {@link #enqueue(int, long, Object[])},
+     * whose callers must apply them first.
+     *
+     * @param streamId The id of the message's stream input
+     * @param row The message, as a row ordered by the stream schema
+     * @see StreamSchema#getId()
+     */
+
+    public void send(int streamId, Object[] row) {
+        InputHandler[] handlers = inputHandlers;
+        InputHandler inputHandler = streamId < handlers.length ? handlers[streamId] : null;
+
+        if (inputHandler == null) {
+            log.warn("Received send from invalid stream id {} to execution plan {} version {}", streamId, id, version);
             return;
         }
 
-        List<Object> elementsList = new ArrayList<>();
-        Map<String, String> attributes = ConfigData.getAttributes(topicName);
-        for (String attributeName : attributes.keySet()) {
-            Object element = data.get(attributeName);
-            elementsList.add(element);
+        InputFilter inputFilter = getInputFilter(streamId);
+        if (inputFilter != null && !inputFilter.matches(row)) return;
+
+        if (!usage.accept()) return;
+
+        try {
+            long cpuStart = PlanUsage.now();
+            long start = System.nanoTime();
+            inputHandler.send(row);
+            sendTime.record(System.nanoTime() - start);
+            events.inc();
+            usage.record(PlanUsage.now() - cpuStart, 1);
+        } catch (InterruptedException e) {
+            log.error("Couldn't send items to execution plan {} version {}", id, version);
+        }
+    }
+
+    /**
+     * Adds a row to the batch of events pending to be sent to the given input stream.
+     * <p>The batch is sent to the execution plan runtime when it is full, or when {@link #flush()}
+     * is called. The row is not copied, so the batch must be flushed before the row is reused.
+     * <p>The filters of the plan are not applied, as the lanes evaluate them once for every plan
+     * with the same filters, so the caller must only enqueue the rows that match them.
+     * <p>This method is not thread-safe, as it is always called from the lane that executes the plan.
+     *
+     * @param streamId The id of the message's stream input
+     * @param timestamp The timestamp of the message
+     * @param row The message, as a row ordered by the stream schema
+     * @return true if the plan had no pending events before this call and has them now,
+     *         so the caller knows when it must schedule a flush
+     * @see SiddhiLane
+     */
+
+    public boolean enqueue(int streamId, long timestamp, Object[] row) {
+        InputBatch[] batches = inputBatches;
+        InputBatch inputBatch = streamId < batches.length ? batches[streamId] : null;
+
+        if (inputBatch == null) {
+            log.warn("Received send from invalid stream id {} to execution plan {} version {}", streamId, id, version);
+            return false;
+        }
+
+        if (!usage.accept()) return false;
+
+        if (!inputBatch.add(timestamp, row)) {
+            boolean wasPending = pending;
+            pending = true;
+            return !wasPending;
+        }
+
+        // The batch is full, so it is sent now and accounted like the batches sent by flush
+        long cpuStart = PlanUsage.now();
+        int sent = flush(inputBatch);
+        usage.record(PlanUsage.now() - cpuStart, sent);
+        return false;
+    }
+
+    /**
+     * Sends the pending events of every input stream to the execution plan runtime.
+     */
+
+    public void flush() {
+        if (!pending) return;
+        pending = false;
+
+        long cpuStart = PlanUsage.now();
+        int sentTotal = 0;
+
+        for (InputBatch inputBatch : inputBatches) {
+            if (inputBatch != null) sentTotal += flush(inputBatch);
         }
 
+        usage.record(PlanUsage.now() - cpuStart, sentTotal);
+    }
+
+    /**
+     * Sends the pending events of an input stream to the execution plan runtime,
+     * and records the time spent and the events sent in the metrics of the plan.
+     *
+     * @param inputBatch The batch of the input stream
+     * @return The number of events sent, or zero if Siddhi failed to process them
+     */
+
+    private int flush(InputBatch inputBatch) {
         try {
-            executionPlanRuntime.getInputHandler("raw_" + topicName).send(elementsList.toArray());
+            long start = System.nanoTime();
+            int sent = inputBatch.flush();
+
+            if (sent > 0) {
+                sendTime.record(System.nanoTime() - start);
+                events.add(sent);
+            }
+
+            return sent;
         } catch (InterruptedException e) {
             log.error("Couldn't send items to execution plan {} version {}", id, version);
+        } catch (RuntimeException e) {
+            // The batch is empty now, even if Siddhi failed to process it
+            log.error("Couldn't send items to execution plan " + id + " version " + version, e);
         }
+
+        return 0;
+    }
+
+    /**
+     * Returns the name of a metric of a siddhi plan.
+     *
+     * @param id The id of the siddhi plan
+     * @param measure The measure of the metric
+     * @return The name of the metric
+     */
+
+    private static String metricName(String id, String measure) {
+        return "plan." + id + "." + measure;
+    }
+
+    /**
+     * Returns the names of the metrics registered by the siddhi plans with the given id,
+     * which are shared by every version of the plan.
+     *
+     * @param id The id of the siddhi plan
+     * @return The names of the metrics
+     */
+
+    public static List<String> metricNames(String id) {
+        return Arrays.asList(metricName(id, "send_time"), metricName(id, "events"), metricName(id, "outputs"));
     }
 
     /**
-     * Starts the siddhi execution plan
+     * Compiles and starts the siddhi execution plan
      *
      * @param siddhiManager The manager that will manage the execution plan
      * @param siddhiCallback The callback to be called when the execution plan creates a new message
      * @throws ExecutionPlanException
+     * @see #compile(SiddhiManager, SiddhiCallback)
+     * @see #start()
      */
 
     public void start(SiddhiManager siddhiManager, SiddhiCallback siddhiCallback) throws ExecutionPlanException {
+        compile(siddhiManager, siddhiCallback);
+        start();
+    }
+
+    /**
+     * Compiles the siddhi execution plan, and prepares its callbacks and its input handlers,
+     * without starting it. Different plans can be compiled concurrently.
+     *
+     * @param siddhiManager The manager that will manage the execution plan
+     * @param siddhiCallback The callback to be called when the execution plan creates a new message
+     * @throws ExecutionPlanException if the outputs are not present on the execution plan
+     */
+
+    public void compile(SiddhiManager siddhiManager, SiddhiCallback siddhiCallback) throws ExecutionPlanException {
         this.executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(getFullExecutionPlan());
+        this.sendTime = Metrics.timer(metricName(id, "send_time"));
+        this.events = Metrics.counter(metricName(id, "events"));
+
+        Counter outputs = Metrics.counter(metricName(id, "outputs"));
+        this.usage = new PlanUsage(id, PlanUsage.Limits.of(ConfigData.getPlanLimits(), limits), outputs);
 
         for (Map.Entry<String, String> entry : outputTopics.entrySet()) {
             String streamName = entry.getKey();
@@ -366,17 +640,107 @@ public class SiddhiPlan {
             AbstractDefinition abstractDefinition = executionPlanRuntime.getStreamDefinitionMap().get(streamName);
             if (abstractDefinition != null) {
                 List<Attribute> attributes = abstractDefinition.getAttributeList();
-                StreamCallback streamCallback = siddhiCallback.getCallback(streamName, topic, attributes);
+                StreamCallback streamCallback = siddhiCallback.getCallback(streamName, topic, attributes,
+                        outputSinks.get(streamName), outputs);
                 executionPlanRuntime.addCallback(streamName, streamCallback);
             } else {
+                executionPlanRuntime.shutdown();
                 throw new InvalidExecutionPlanException("You specified a output that is not present on the execution plan");
             }
         }
 
+        // Build the dispatch table with the input handler and the batch of each input topic
+        InputHandler[] handlers = new InputHandler[StreamSchema.count()];
+        InputBatch[] batches = new InputBatch[StreamSchema.count()];
+        int batchSize = ConfigData.getSiddhiBatchSize();
+
+        for (String topic : inputTopics) {
+            int streamId = StreamSchema.of(topic).getId();
+            handlers[streamId] = executionPlanRuntime.getInputHandler(topic);
+            batches[streamId] = new InputBatch(handlers[streamId], batchSize);
+        }
+
+        inputHandlers = handlers;
+        inputBatches = batches;
+    }
+
+    /**
+     * Starts the siddhi execution plan, once it has been compiled
+     *
+     * @see #compile(SiddhiManager, SiddhiCallback)
+     */
+
+    public void start() {
         executionPlanRuntime.start();
         log.info("Started execution plan with id {} version {}", id, version, fullExecutionPlan);
     }
 
+    /**
+     * Checks if the state of another siddhi plan can be restored into this plan. That is the case
+     * when both plans have the same inputs, filters and outputs, and their execution plans only
+     * differ on the literals used outside of the windows, like the thresholds of the conditions.
+     * Plans with different filters don't share state, as it was built from different events.
+     *
+     * @param other The other siddhi plan
+     * @return true if the state of the other plan can be restored into this plan
+     * @see #snapshot()
+     * @see #restore(byte[])
+     */
+
+    public boolean isCompatibleWith(SiddhiPlan other) {
+        return inputTopics.equals(other.inputTopics) &&
+                filters.equals(other.filters) &&
+                outputTopics.equals(other.outputTopics) &&
+                structureOf(executionPlan).equals(structureOf(other.executionPlan));
+    }
+
+    /**
+     * Returns the structure of an execution plan: the execution plan with its whitespace collapsed,
+     * and the literals replaced by a placeholder, except the parameters of the windows.
+     *
+     * @param executionPlan The execution plan
+     * @return The structure of the execution plan
+     */
+
+    static String structureOf(String executionPlan) {
+        StringBuilder structure = new StringBuilder();
+        Matcher windows = WINDOWS.matcher(executionPlan);
+        int last = 0;
+
+        while (windows.find()) {
+            structure.append(LITERALS.matcher(executionPlan.substring(last, windows.start())).replaceAll("?"));
+            structure.append(windows.group());
+            last = windows.end();
+        }
+
+        structure.append(LITERALS.matcher(executionPlan.substring(last)).replaceAll("?"));
+        return structure.toString().replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * Takes a snapshot of the state of the execution plan, like the events
+     * of its windows and its partial pattern matches.
+     *
+     * @return The serialized state of the execution plan
+     */
+
+    public byte[] snapshot() {
+        return executionPlanRuntime.snapshot();
+    }
+
+    /**
+     * Restores the state of the execution plan from a snapshot taken
+     * from the same version of this plan.
+     *
+     * @param snapshot The serialized state of the execution plan
+     * @see #snapshot()
+     */
+
+    public void restore(byte[] snapshot) {
+        executionPlanRuntime.restore(snapshot);
+        log.info("Restored the state of execution plan {} version {}", id, version);
+    }
+
     /**
      * Stops the execution plan
      */
@@ -35,4 +35,43 @@ public class SiddhiUtils {
     public static Attribute.Type typeOf(String typeName) {
         return typeMap.get(typeName);
     }
+
+    /**
+     * Converts a value to the Java type of a Siddhi attribute type. Numbers are converted
+     * by value, so the integers that JSON parsers produce for small numbers become longs
+     * when the attribute is a long.
+     *
+     * @param value The value
+     * @param type The type of the attribute
+     * @return The converted value, or null if the value is null or can't be converted
+     */
+
+    public static Object coerce(Object value, Attribute.Type type) {
+        if (value == null) return null;
+
+        try {
+            switch (type) {
+                case STRING:
+                    return value instanceof String ? value : value.toString();
+                case INT:
+                    if (value instanceof Integer) return value;
+                    return value instanceof Number ? ((Number) value).intValue() : Integer.valueOf(value.toString().trim());
+                case LONG:
+                    if (value instanceof Long) return value;
+                    return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString().trim());
+                case FLOAT:
+                    if (value instanceof Float) return value;
+                    return value instanceof Number ? ((Number) value).floatValue() : Float.valueOf(value.toString().trim());
+                case DOUBLE:
+                    if (value instanceof Double) return value;
+                    return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(value.toString().trim());
+                case BOOL:
+                    return value instanceof Boolean ? value : Boolean.valueOf(value.toString().trim());
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,146 @@
+package net.redborder.cep.siddhi;
+
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.metrics.Timer;
+import net.redborder.cep.sources.SourcesManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class snapshots the state of the siddhi plans periodically, so the CEP
+ * can restart with the windows and the partial matches of its plans.
+ * <p>Each snapshot is consistent with the messages consumed: the sources are paused, the
+ * ring buffers are drained, the plans are snapshotted, and then the sources commit the
+ * position of the messages consumed, before they are resumed. On restart, the snapshots
+ * are restored before the sources start, and the sources continue from the positions
+ * committed with the last snapshot.
+ *
+ * @see SiddhiHandler#snapshot(Path)
+ * @see net.redborder.cep.sources.Source#pause()
+ */
+
+public class SnapshotManager {
+    private static final Logger log = LogManager.getLogger(SnapshotManager.class);
+
+    // The maximum time to wait for the ring buffers to be drained
+    private static final long DRAIN_TIMEOUT_MS = 30000;
+
+    // The handler of the siddhi plans
+    private final SiddhiHandler siddhiHandler;
+
+    // The directory where the snapshots are stored
+    private final Path directory;
+
+    // The time between snapshots, in seconds
+    private final long interval;
+
+    // The sources that are paused while the snapshots are taken
+    private SourcesManager sourcesManager;
+
+    // The thread that takes the snapshots
+    private ScheduledExecutorService scheduler;
+
+    // The time spent on each snapshot, and the snapshots that failed
+    private final Timer snapshotTime = Metrics.timer("snapshot.time");
+    private final Counter failures = Metrics.counter("snapshot.failures");
+
+    /**
+     * Creates a new snapshot manager.
+     *
+     * @param siddhiHandler The handler of the siddhi plans
+     * @param directory The directory where the snapshots are stored
+     * @param interval The time between snapshots, in seconds
+     */
+
+    public SnapshotManager(SiddhiHandler siddhiHandler, Path directory, long interval) {
+        this.siddhiHandler = siddhiHandler;
+        this.directory = directory;
+        this.interval = interval;
+    }
+
+    /**
+     * Restores the state of the siddhi plans from the last snapshots.
+     * It must be called after the plans are restored, and before the sources start.
+     */
+
+    public void restore() {
+        log.info("Restoring snapshots from {}", directory);
+        siddhiHandler.restoreSnapshots(directory);
+    }
+
+    /**
+     * Starts taking snapshots periodically.
+     *
+     * @param sourcesManager The sources that are paused while the snapshots are taken
+     */
+
+    public void start(SourcesManager sourcesManager) {
+        this.sourcesManager = sourcesManager;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "siddhi-snapshots");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                snapshot();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Takes a snapshot of every siddhi plan, consistent with the position of the
+     * messages consumed by the sources.
+     *
+     * @return true if the snapshot was taken
+     */
+
+    public synchronized boolean snapshot() {
+        long start = System.nanoTime();
+
+        if (!sourcesManager.pause(DRAIN_TIMEOUT_MS)) {
+            log.warn("Couldn't pause the sources, skipping snapshot");
+            failures.inc();
+            return false;
+        }
+
+        try {
+            siddhiHandler.snapshot(directory);
+            sourcesManager.commit();
+            snapshotTime.record(System.nanoTime() - start);
+            log.debug("Snapshot taken in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Couldn't snapshot the siddhi plans", e);
+            failures.inc();
+            return false;
+        } finally {
+            sourcesManager.resume();
+        }
+    }
+
+    /**
+     * Stops taking snapshots periodically, and takes a last snapshot.
+     * It must be called before the siddhi plans and the sources are stopped.
+     */
+
+    public void shutdown() {
+        if (scheduler == null) return;
+
+        scheduler.shutdownNow();
+        snapshot();
+    }
+}
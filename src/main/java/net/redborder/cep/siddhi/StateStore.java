@@ -0,0 +1,245 @@
+package net.redborder.cep.siddhi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This class persists the list of siddhi plans on the state file.
+ * <p>The state file is always replaced atomically: the plans are written to a temporary
+ * file on the same directory, the file is synced to disk, and then it is renamed to the
+ * state file, so a crash leaves either the previous state or the new one.
+ * <p>Optionally, the changes can be appended to a journal next to the state file instead of
+ * rewriting the whole state, so adding or removing a plan only writes that plan. The journal
+ * is replayed over the state file when the state is loaded, and it is compacted into the
+ * state file when it grows larger than the given number of records.
+ *
+ * @see SiddhiHandler#save()
+ */
+
+public class StateStore {
+    private static final Logger log = LogManager.getLogger(StateStore.class);
+
+    // The extension of the journal file, appended to the name of the state file
+    private static final String JOURNAL_EXTENSION = ".journal";
+
+    // The path to the state file, to its temporary file and to its journal
+    private final Path stateFile, tempFile, journalFile;
+
+    // True if the changes are appended to the journal
+    private final boolean journal;
+
+    // The number of records of the journal that triggers a compaction
+    private final int maxJournalRecords;
+
+    // The number of records currently on the journal
+    private int journalRecords;
+
+    // An object to serialize and parse JSON messages
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Creates a new state store.
+     *
+     * @param stateFile The path to the state file
+     * @param journal True if the changes are appended to a journal
+     * @param maxJournalRecords The number of records of the journal that triggers a compaction
+     */
+
+    public StateStore(Path stateFile, boolean journal, int maxJournalRecords) {
+        this.stateFile = stateFile.toAbsolutePath();
+        this.tempFile = this.stateFile.resolveSibling(this.stateFile.getFileName() + ".tmp");
+        this.journalFile = this.stateFile.resolveSibling(this.stateFile.getFileName() + JOURNAL_EXTENSION);
+        this.journal = journal;
+        this.maxJournalRecords = maxJournalRecords;
+    }
+
+    /**
+     * Loads the siddhi plans from the state file, and applies the records of the journal.
+     * If the last record of the journal was not completely written, it is ignored, and the
+     * journal is compacted into the state file so the next records are not appended to it.
+     *
+     * @return The map representation of each siddhi plan
+     * @throws IOException if the state file couldn't be read
+     */
+
+    @SuppressWarnings("unchecked")
+    public synchronized List<Map<String, Object>> load() throws IOException {
+        Map<String, Map<String, Object>> plans = new LinkedHashMap<>();
+
+        if (Files.exists(stateFile)) {
+            List<Map<String, Object>> saved = objectMapper.readValue(Files.readAllBytes(stateFile), List.class);
+            for (Map<String, Object> plan : saved) {
+                plans.put(String.valueOf(plan.get("id")), plan);
+            }
+        }
+
+        journalRecords = 0;
+        boolean truncated = false;
+
+        if (Files.exists(journalFile)) {
+            byte[] bytes = Files.readAllBytes(journalFile);
+
+            // Every record ends with a new line, even the last one
+            truncated = bytes.length > 0 && bytes[bytes.length - 1] != '\n';
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    Map<String, Object> record;
+
+                    try {
+                        record = objectMapper.readValue(line, Map.class);
+                    } catch (IOException e) {
+                        // The last record was not completely written
+                        truncated = true;
+                        break;
+                    }
+
+                    apply(plans, record);
+                    journalRecords++;
+                }
+            }
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>(plans.values());
+
+        // The next records would be appended to the truncated one, so compact the journal now
+        if (truncated) {
+            log.warn("Ignoring truncated record of the journal {}, compacting it", journalFile);
+            save(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Applies a record of the journal to the siddhi plans.
+     *
+     * @param plans The map representation of each siddhi plan, by id
+     * @param record The record
+     */
+
+    @SuppressWarnings("unchecked")
+    private void apply(Map<String, Map<String, Object>> plans, Map<String, Object> record) {
+        Object op = record.get("op");
+
+        if ("add".equals(op)) {
+            Map<String, Object> plan = (Map<String, Object>) record.get("plan");
+            plans.put(String.valueOf(plan.get("id")), plan);
+        } else if ("remove".equals(op)) {
+            plans.remove(String.valueOf(record.get("id")));
+        } else {
+            log.warn("Ignoring unknown record of the journal: {}", record);
+        }
+    }
+
+    /**
+     * Persists the changes made to the siddhi plans. If the journal is enabled and it has room
+     * for them, the changes are appended to it. Otherwise, the whole state is written.
+     *
+     * @param plans The map representation of each siddhi plan, after the changes
+     * @param added The map representation of the siddhi plans added or replaced
+     * @param removed The ids of the siddhi plans removed
+     * @throws IOException if the state couldn't be written
+     */
+
+    public synchronized void update(Collection<Map<String, Object>> plans, Collection<Map<String, Object>> added,
+                                    Collection<String> removed) throws IOException {
+        int records = added.size() + removed.size();
+        if (records == 0) return;
+
+        if (!journal || journalRecords + records > maxJournalRecords) {
+            save(plans);
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        for (Map<String, Object> plan : added) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("op", "add");
+            record.put("plan", plan);
+            bytes.write(objectMapper.writeValueAsBytes(record));
+            bytes.write('\n');
+        }
+
+        for (String id : removed) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("op", "remove");
+            record.put("id", id);
+            bytes.write(objectMapper.writeValueAsBytes(record));
+            bytes.write('\n');
+        }
+
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            write(channel, bytes.toByteArray());
+        }
+
+        journalRecords += records;
+    }
+
+    /**
+     * Writes the whole state atomically, and empties the journal.
+     *
+     * @param plans The map representation of each siddhi plan
+     * @throws IOException if the state couldn't be written
+     */
+
+    public synchronized void save(Collection<Map<String, Object>> plans) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(plans);
+
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, bytes);
+        }
+
+        Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        // The state file includes every record of the journal now
+        Files.deleteIfExists(journalFile);
+        journalRecords = 0;
+    }
+
+    /**
+     * Writes the given bytes to a file, and syncs the file to disk.
+     *
+     * @param channel The channel of the file
+     * @param bytes The bytes
+     * @throws IOException if the bytes couldn't be written
+     */
+
+    private void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) channel.write(buffer);
+        channel.force(false);
+    }
+
+    /**
+     * Syncs the directory of the state file to disk, so the rename is durable.
+     * Some platforms can't open directories, so the errors are ignored.
+     */
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(stateFile.getParent(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Couldn't sync the directory of the state file", e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package net.redborder.cep.siddhi;
+
+import java.util.*;
+
+/**
+ * This class stores the siddhi plans of a lane that have a stream as input, and
+ * forwards the rows of the stream only to the plans whose filters match them.
+ * <p>The plans with the same filters are grouped, so their filters are evaluated once
+ * per row. The groups are indexed by the value of one of their filtered attributes, so a
+ * row is only matched against the groups that require the value that the row has.
+ *
+ * @see SiddhiLane
+ * @see InputFilter
+ */
+
+class StreamRoute {
+    // A route without plans
+    static final StreamRoute EMPTY = new StreamRoute(Collections.<SiddhiPlan>emptyList(),
+            Collections.<InputFilter, List<SiddhiPlan>>emptyMap());
+
+    // The plans without filters, that receive every row
+    private final SiddhiPlan[] plans;
+
+    // The positions of the attributes used to index the groups
+    private final int[] indexPositions;
+
+    // The groups indexed by the value of each index attribute, at the same position as the attribute
+    private final List<Map<Object, Group[]>> indexes;
+
+    /**
+     * Creates a new route.
+     *
+     * @param plans The plans without filters on the stream
+     * @param filteredPlans The plans with filters on the stream, grouped by their filters
+     */
+
+    StreamRoute(List<SiddhiPlan> plans, Map<InputFilter, List<SiddhiPlan>> filteredPlans) {
+        this.plans = plans.toArray(new SiddhiPlan[plans.size()]);
+
+        Map<Integer, Map<Object, List<Group>>> groupsByPosition = new TreeMap<>();
+        for (Map.Entry<InputFilter, List<SiddhiPlan>> entry : filteredPlans.entrySet()) {
+            InputFilter filter = entry.getKey();
+            List<SiddhiPlan> groupPlans = entry.getValue();
+
+            Map<Object, List<Group>> groupsByValue = groupsByPosition.get(filter.getIndexPosition());
+            if (groupsByValue == null) {
+                groupsByValue = new HashMap<>();
+                groupsByPosition.put(filter.getIndexPosition(), groupsByValue);
+            }
+
+            List<Group> groups = groupsByValue.get(filter.getIndexValue());
+            if (groups == null) {
+                groups = new ArrayList<>();
+                groupsByValue.put(filter.getIndexValue(), groups);
+            }
+
+            groups.add(new Group(filter, groupPlans.toArray(new SiddhiPlan[groupPlans.size()])));
+        }
+
+        this.indexPositions = new int[groupsByPosition.size()];
+        this.indexes = new ArrayList<>(groupsByPosition.size());
+        int i = 0;
+
+        for (Map.Entry<Integer, Map<Object, List<Group>>> entry : groupsByPosition.entrySet()) {
+            Map<Object, Group[]> index = new HashMap<>();
+            for (Map.Entry<Object, List<Group>> groups : entry.getValue().entrySet()) {
+                index.put(groups.getKey(), groups.getValue().toArray(new Group[groups.getValue().size()]));
+            }
+
+            indexPositions[i++] = entry.getKey();
+            indexes.add(index);
+        }
+    }
+
+    /**
+     * Enqueues a row on every plan of the route that accepts it.
+     *
+     * @param streamId The id of the stream
+     * @param timestamp The timestamp of the row
+     * @param row The row
+     * @param pendingPlans The list that receives the plans that have pending events after this call
+     * @see SiddhiPlan#enqueue(int, long, Object[])
+     */
+
+    void enqueue(int streamId, long timestamp, Object[] row, List<SiddhiPlan> pendingPlans) {
+        for (SiddhiPlan siddhiPlan : plans) {
+            if (siddhiPlan.enqueue(streamId, timestamp, row)) pendingPlans.add(siddhiPlan);
+        }
+
+        for (int i = 0; i < indexPositions.length; i++) {
+            Object value = row[indexPositions[i]];
+            if (value == null) continue;
+
+            Group[] groups = indexes.get(i).get(value);
+            if (groups == null) continue;
+
+            for (Group group : groups) {
+                if (!group.filter.matches(row)) continue;
+
+                for (SiddhiPlan siddhiPlan : group.plans) {
+                    if (siddhiPlan.enqueue(streamId, timestamp, row)) pendingPlans.add(siddhiPlan);
+                }
+            }
+        }
+    }
+
+    /**
+     * The plans that share the same filters
+     */
+
+    private static class Group {
+        private final InputFilter filter;
+        private final SiddhiPlan[] plans;
+
+        private Group(InputFilter filter, SiddhiPlan[] plans) {
+            this.filter = filter;
+            this.plans = plans;
+        }
+    }
+}
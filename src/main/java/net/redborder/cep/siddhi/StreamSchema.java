@@ -0,0 +1,210 @@
+package net.redborder.cep.siddhi;
+
+import net.redborder.cep.util.ConfigData;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.*;
+
+/**
+ * This class represents the schema of an input stream defined on the config file.
+ * <p>Events travel from the sources to the siddhi plans as positional rows, this is,
+ * arrays with one value for each attribute of the stream. The schema defines the
+ * position of each attribute on those rows, which is the same position that the
+ * attribute has on the Siddhi stream definition.
+ *
+ * @see ConfigData#getAttributes(String)
+ */
+
+public class StreamSchema {
+    private final static Logger log = LogManager.getLogger(StreamSchema.class);
+
+    // The schemas of every input stream defined on the config file
+    private final static Map<String, StreamSchema> schemas = new HashMap<>();
+
+    // Get the list of available streams from the config file
+    // and build the schema of each one of them
+    static {
+        Set<String> topics = ConfigData.getStreams();
+        for (String topic : topics) {
+            log.info("Creating stream definition for topic {}", topic);
+            schemas.put(topic, new StreamSchema(topic, schemas.size(), ConfigData.getAttributes(topic)));
+        }
+    }
+
+    // The name of the stream
+    private final String name;
+
+    // The index of the stream, between 0 and the number of streams.
+    // It lets the consumers of the streams use arrays instead of maps.
+    private final int id;
+
+    // The Siddhi representation of the stream
+    private final StreamDefinition definition;
+
+    // The attributes names and types, ordered by position
+    private final String[] names;
+    private final Attribute.Type[] types;
+
+    // The position of each attribute, by attribute name
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    /**
+     * Returns the schema of the given stream
+     *
+     * @param streamName The stream name
+     * @return The schema of the stream, or null if the stream is not present on the config file
+     */
+
+    public static StreamSchema of(String streamName) {
+        return schemas.get(streamName);
+    }
+
+    /**
+     * @return the number of streams, which is the upper bound of the streams ids
+     */
+
+    public static int count() {
+        return schemas.size();
+    }
+
+    /**
+     * Creates a new schema from the attributes of a stream, as they are specified on the config file.
+     * Attributes with an incorrect type are ignored.
+     *
+     * @param name The stream name
+     * @param id The stream index
+     * @param attributes A map with the type name of each attribute
+     */
+
+    private StreamSchema(String name, int id, Map<String, String> attributes) {
+        List<String> namesList = new ArrayList<>();
+        List<Attribute.Type> typesList = new ArrayList<>();
+
+        this.name = name;
+        this.id = id;
+        this.definition = new StreamDefinition();
+        this.definition.setId(name);
+
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            String attrName = entry.getKey();
+            String type = entry.getValue();
+            Attribute.Type attrType = SiddhiUtils.typeOf(type);
+
+            if (attrType != null) {
+                definition.attribute(attrName, attrType);
+                positions.put(attrName, namesList.size());
+                namesList.add(attrName);
+                typesList.add(attrType);
+                log.debug("  - {} : {}", attrName, type);
+            } else {
+                log.warn("  - Incorrect type for attribute {}", attrName);
+            }
+        }
+
+        this.names = namesList.toArray(new String[namesList.size()]);
+        this.types = typesList.toArray(new Attribute.Type[typesList.size()]);
+    }
+
+    /**
+     * @return the name of the stream
+     */
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the index of the stream, between 0 and {@link #count()}
+     */
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the Siddhi stream definition of the stream
+     */
+
+    public StreamDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @return the number of attributes of the stream, which is the length of its rows
+     */
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param position The position of the attribute
+     * @return the name of the attribute at the given position
+     */
+
+    public String getAttributeName(int position) {
+        return names[position];
+    }
+
+    /**
+     * @param position The position of the attribute
+     * @return the type of the attribute at the given position
+     */
+
+    public Attribute.Type getAttributeType(int position) {
+        return types[position];
+    }
+
+    /**
+     * Returns the position of an attribute on the rows of this stream
+     *
+     * @param attributeName The attribute name
+     * @return The position of the attribute, or -1 if the attribute is not part of the stream
+     */
+
+    public int indexOf(String attributeName) {
+        Integer position = positions.get(attributeName);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Writes the attributes of the stream present on the given map into a row.
+     * The values are converted to the types of their attributes, as Siddhi and the
+     * filters of the siddhi plans expect. Attributes that are not present on the map,
+     * or whose values can't be converted, are set to null.
+     *
+     * @param data The message as a map
+     * @param row The row that will receive the attribute values
+     */
+
+    public void project(Map<String, Object> data, Object[] row) {
+        for (int i = 0; i < names.length; i++) {
+            row[i] = SiddhiUtils.coerce(data.get(names[i]), types[i]);
+        }
+    }
+
+    /**
+     * Builds a map representation of a row of this stream.
+     * Null values are not included in the map.
+     *
+     * @param row The row
+     * @return A map with the attribute values of the row
+     */
+
+    public Map<String, Object> toMap(Object[] row) {
+        Map<String, Object> result = new HashMap<>(names.length * 2);
+
+        for (int i = 0; i < names.length; i++) {
+            if (row[i] != null) result.put(names[i], row[i]);
+        }
+
+        return result;
+    }
+
+    public String toString() {
+        return name + Arrays.toString(names);
+    }
+}
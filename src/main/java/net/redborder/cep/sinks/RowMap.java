@@ -0,0 +1,150 @@
+package net.redborder.cep.sinks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * This class is a read-only map view over a row of values, this is, an array with
+ * one value for each attribute of an output stream.
+ * <p>The names of the attributes are stored once on a {@link Schema} that is shared by
+ * every row of the stream, so a message only costs the row that Siddhi already created
+ * and this small wrapper. Sinks that serialize messages to JSON can use
+ * {@link #writeTo(JsonGenerator)} to write the row without iterating over map entries.
+ */
+
+public class RowMap extends AbstractMap<String, Object> {
+    // The attribute names shared by the rows of the stream
+    private final Schema schema;
+
+    // The attribute values, ordered as the schema
+    private final Object[] values;
+
+    /**
+     * Creates a new map view over a row.
+     *
+     * @param schema The attribute names of the row
+     * @param values The attribute values, ordered as the schema. It is not copied.
+     */
+
+    public RowMap(Schema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    @Override
+    public int size() {
+        return schema.names.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return schema.positions.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        Integer position = schema.positions.get(key);
+        return position == null ? null : values[position];
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public int size() {
+                return schema.names.length;
+            }
+
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int position = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < schema.names.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        Entry<String, Object> entry = new SimpleImmutableEntry<>(schema.names[position], values[position]);
+                        position++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Writes the row as a JSON object, with one field for each attribute.
+     *
+     * @param generator The JSON generator. It must have a codec if the row has values
+     *                  that are not strings, numbers or booleans.
+     * @throws IOException if the row couldn't be written
+     */
+
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            generator.writeFieldName(schema.names[i]);
+
+            if (value == null) {
+                generator.writeNull();
+            } else if (value instanceof String) {
+                generator.writeString((String) value);
+            } else if (value instanceof Integer) {
+                generator.writeNumber((Integer) value);
+            } else if (value instanceof Long) {
+                generator.writeNumber((Long) value);
+            } else if (value instanceof Double) {
+                generator.writeNumber((Double) value);
+            } else if (value instanceof Float) {
+                generator.writeNumber((Float) value);
+            } else if (value instanceof Boolean) {
+                generator.writeBoolean((Boolean) value);
+            } else {
+                generator.writeObject(value);
+            }
+        }
+
+        generator.writeEndObject();
+    }
+
+    /**
+     * This class stores the attribute names of the rows of an output stream,
+     * and the position of each one of them.
+     */
+
+    public static class Schema {
+        // The attribute names, ordered by position
+        private final String[] names;
+
+        // The position of each attribute, by attribute name
+        private final Map<String, Integer> positions = new HashMap<>();
+
+        /**
+         * Creates a new schema.
+         *
+         * @param names The attribute names, ordered by position
+         */
+
+        public Schema(List<String> names) {
+            this.names = names.toArray(new String[names.size()]);
+
+            for (int i = 0; i < this.names.length; i++) {
+                positions.put(this.names[i], i);
+            }
+        }
+    }
+}
@@ -16,6 +16,20 @@ public abstract class Sink {
         this.properties = properties;
     }
 
+    /**
+     * Gets a property from the sink properties, or a default value if the sink
+     * has no properties or the property is not present.
+     *
+     * @param propertyName The property that will be returned
+     * @param defaultValue The value returned if the property is not present
+     * @return The value associated with the property name specified, or the default value
+     */
+
+    public Object getProperty(String propertyName, Object defaultValue) {
+        Object value = properties == null ? null : properties.get(propertyName);
+        return value == null ? defaultValue : value;
+    }
+
     /**
      * This method process the given message from the given stream input, and
      * sends it to a system that will be responsible for storing, persisting and/or
@@ -0,0 +1,48 @@
+package net.redborder.cep.sinks;
+
+import java.util.Map;
+
+/**
+ * This class represents the set of sinks that receive the messages of an output stream.
+ * <p>The routes are resolved by the SinksManager when a siddhi plan starts, so sending
+ * a message only iterates over the sinks that must receive it.
+ *
+ * @see SinksManager#route(String, String, java.util.List)
+ */
+
+public class SinkRoute {
+    // The workers of the sinks that receive the messages
+    private final SinkWorker[] workers;
+
+    /**
+     * Creates a new route.
+     *
+     * @param workers The workers of the sinks that receive the messages
+     */
+
+    SinkRoute(SinkWorker[] workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Enqueues the message for every sink of the route.
+     *
+     * @param streamName The message output stream
+     * @param topic The destination topic
+     * @param message The message
+     */
+
+    public void process(String streamName, String topic, Map<String, Object> message) {
+        for (SinkWorker worker : workers) {
+            worker.process(streamName, topic, message);
+        }
+    }
+
+    /**
+     * @return the number of sinks of the route
+     */
+
+    public int size() {
+        return workers.length;
+    }
+}
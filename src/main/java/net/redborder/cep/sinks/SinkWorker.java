@@ -0,0 +1,269 @@
+package net.redborder.cep.sinks;
+
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Gauge;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.metrics.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class decouples a sink from the threads that produce its messages.
+ * <p>The messages are stored on a bounded queue, and a worker thread takes them from
+ * the queue and hands them to the sink, so a slow sink doesn't stall the evaluation of
+ * the siddhi plans. When the queue is full, the overflow policy decides what happens:
+ * <ul>
+ *     <li>block: The producer waits until there is room on the queue (the default)</li>
+ *     <li>drop_oldest: The oldest message of the queue is discarded</li>
+ *     <li>drop_newest: The new message is discarded</li>
+ * </ul>
+ *
+ * @see SinksManager
+ */
+
+class SinkWorker implements Runnable {
+    private static final Logger log = LogManager.getLogger(SinkWorker.class);
+
+    // The maximum number of messages that the worker hands to the sink in a row
+    private static final int DRAIN_SIZE = 256;
+
+    /**
+     * The policies available when the queue of a sink is full
+     */
+
+    enum OverflowPolicy { BLOCK, DROP_OLDEST, DROP_NEWEST }
+
+    // The name of the sink
+    private final String name;
+
+    // The sink that will process the messages
+    private final Sink sink;
+
+    // The messages pending to be processed by the sink
+    private final BlockingQueue<Output> queue;
+
+    // What to do when the queue is full
+    private final OverflowPolicy overflowPolicy;
+
+    // The output streams or topics accepted by the sink, or null if it accepts all of them
+    private final Set<String> streams;
+
+    // The number of messages discarded because the queue was full
+    private final AtomicLong dropped = new AtomicLong();
+
+    // The time that the sink takes to process each message, and the messages that it failed to process
+    private final Timer processTime;
+    private final Counter errors;
+
+    // The thread that hands the messages to the sink
+    private Thread thread;
+
+    // False when the worker must stop, after processing the pending messages
+    private volatile boolean running;
+
+    /**
+     * Creates a new worker.
+     *
+     * @param name The name of the sink
+     * @param sink The sink that will process the messages
+     * @param queueSize The maximum number of pending messages
+     * @param overflowPolicy What to do when the queue is full
+     */
+
+    SinkWorker(String name, Sink sink, int queueSize, OverflowPolicy overflowPolicy) {
+        this(name, sink, queueSize, overflowPolicy, null);
+    }
+
+    /**
+     * Creates a new worker for a sink that only accepts some output streams.
+     *
+     * @param name The name of the sink
+     * @param sink The sink that will process the messages
+     * @param queueSize The maximum number of pending messages
+     * @param overflowPolicy What to do when the queue is full
+     * @param streams The output streams or topics accepted by the sink, or null to accept all of them
+     */
+
+    SinkWorker(String name, Sink sink, int queueSize, OverflowPolicy overflowPolicy, Set<String> streams) {
+        this.name = name;
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.overflowPolicy = overflowPolicy;
+        this.streams = streams;
+        this.processTime = Metrics.timer("sink." + name + ".process_time");
+        this.errors = Metrics.counter("sink." + name + ".errors");
+
+        Metrics.gauge("sink." + name + ".pending", new Gauge() {
+            @Override
+            public long value() {
+                return getPending();
+            }
+        });
+
+        Metrics.gauge("sink." + name + ".dropped", new Gauge() {
+            @Override
+            public long value() {
+                return getDropped();
+            }
+        });
+    }
+
+    /**
+     * Checks if the sink accepts the messages of an output stream, by the name of the
+     * stream or by its destination topic.
+     *
+     * @param streamName The output stream
+     * @param topic The destination topic
+     * @return true if the sink accepts the messages of the output stream
+     */
+
+    boolean accepts(String streamName, String topic) {
+        return streams == null || streams.contains(streamName) || streams.contains(topic);
+    }
+
+    /**
+     * Starts the sink and the worker thread.
+     */
+
+    void start() {
+        sink.start();
+        running = true;
+        thread = new Thread(this, "sink-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the worker thread, once every pending message has been processed,
+     * and then stops the sink.
+     */
+
+    void shutdown() {
+        running = false;
+
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        sink.shutdown();
+    }
+
+    /**
+     * Enqueues a message for the sink, applying the overflow policy if the queue is full.
+     *
+     * @param streamName The message input stream
+     * @param topic The destination topic
+     * @param message The message
+     */
+
+    void process(String streamName, String topic, Map<String, Object> message) {
+        Output output = new Output(streamName, topic, message);
+
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                if (!queue.offer(output)) dropped.incrementAndGet();
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(output)) {
+                    if (queue.poll() != null) dropped.incrementAndGet();
+                }
+                break;
+            default:
+                try {
+                    queue.put(output);
+                } catch (InterruptedException e) {
+                    dropped.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+        }
+    }
+
+    /**
+     * @return the sink of this worker
+     */
+
+    Sink getSink() {
+        return sink;
+    }
+
+    /**
+     * @return the number of messages discarded because the queue was full
+     */
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of messages pending to be processed by the sink
+     */
+
+    int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * Takes the messages from the queue and hands them to the sink, until the
+     * worker is stopped and the queue is empty.
+     */
+
+    @Override
+    public void run() {
+        List<Output> outputs = new ArrayList<>(DRAIN_SIZE);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Output first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                outputs.add(first);
+                queue.drainTo(outputs, DRAIN_SIZE - 1);
+
+                for (Output output : outputs) {
+                    try {
+                        long start = System.nanoTime();
+                        sink.process(output.streamName, output.topic, output.message);
+                        processTime.record(System.nanoTime() - start);
+                    } catch (RuntimeException e) {
+                        errors.inc();
+                        log.error("Sink " + name + " couldn't process message", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.warn("Sink {} worker interrupted with {} pending messages", name, queue.size());
+                return;
+            } finally {
+                outputs.clear();
+            }
+        }
+    }
+
+    /**
+     * A message pending to be processed by the sink
+     */
+
+    private static class Output {
+        private final String streamName;
+        private final String topic;
+        private final Map<String, Object> message;
+
+        private Output(String streamName, String topic, Map<String, Object> message) {
+            this.streamName = streamName;
+            this.topic = topic;
+            this.message = message;
+        }
+    }
+}
@@ -8,8 +8,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * This class serves as a manager for the different implementations
@@ -23,20 +22,29 @@ import java.util.Map;
 public class SinksManager {
     private static final Logger log = LogManager.getLogger(SinksManager.class);
 
+    // The default maximum number of messages pending on the queue of each sink
+    private static final int DEFAULT_QUEUE_SIZE = 4096;
+
     /**
      * This attribute stores a reference to each of the sinks present
      * on the config file as an entry on a map. The entry key is the sink
      * name as specified on the config file, and the value associated with it
-     * is an instance of that Sink, that is created with the Java Reflection API,
-     * based on the fully qualified class name specified on the config file for
-     * that specific sink.
+     * is a worker that wraps an instance of that Sink, that is created with the
+     * Java Reflection API, based on the fully qualified class name specified on
+     * the config file for that specific sink.
+     * <p>Each worker has its own queue and thread, so the sinks process the messages
+     * independently from each other and from the siddhi plans that produce them.
      */
 
-    private Map<String, Sink> sinks = new HashMap<>();
+    private Map<String, SinkWorker> sinks = new HashMap<>();
 
     /**
      * This method creates the sink instances as specified on the config file, and stores
      * them on the 'sinks' attribute. It also starts each one of the sink instances.
+     * <p>Besides its properties, each sink entry can specify the size of its queue with
+     * the key "queue_size", and what to do when the queue is full with the key "overflow",
+     * that can be "block" (the default), "drop_oldest" or "drop_newest". The key "streams"
+     * restricts the sink to a list of output streams or topics, instead of all of them.
      */
 
     public SinksManager() {
@@ -52,7 +60,7 @@ public class SinksManager {
                 Class sinkClass = Class.forName(sinkNameClass);
                 Constructor<Sink> constructor = sinkClass.getConstructor(Map.class);
                 Sink sink = constructor.newInstance(new Object[]{properties});
-                sinks.put(sinkName, sink);
+                sinks.put(sinkName, createWorker(sinkName, sink, sinkEntry));
             } catch (ClassNotFoundException e) {
                 log.error("Couldn't find the class associated with the source " + sinkNameClass);
             } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException e) {
@@ -65,10 +73,81 @@ public class SinksManager {
     }
 
     private SinksManager(String sinkName, Sink sink){
-        sinks.put(sinkName, sink);
+        sinks.put(sinkName, createWorker(sinkName, sink, Collections.<String, Object>emptyMap()));
         start();
     }
 
+    /**
+     * Creates the worker of a sink, with the queue size and the overflow policy of its config entry.
+     *
+     * @param sinkName The sink name
+     * @param sink The sink instance
+     * @param sinkEntry The config file entry of the sink
+     * @return The worker of the sink
+     */
+
+    private SinkWorker createWorker(String sinkName, Sink sink, Map<String, Object> sinkEntry) {
+        Object queueSize = sinkEntry.get("queue_size");
+        Object overflow = sinkEntry.get("overflow");
+        SinkWorker.OverflowPolicy overflowPolicy = SinkWorker.OverflowPolicy.BLOCK;
+
+        if (overflow != null) {
+            try {
+                overflowPolicy = SinkWorker.OverflowPolicy.valueOf(overflow.toString().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown overflow policy {} for sink {}, using block", overflow, sinkName);
+            }
+        }
+
+        Object streams = sinkEntry.get("streams");
+        Set<String> acceptedStreams = null;
+
+        if (streams instanceof Collection) {
+            acceptedStreams = new HashSet<>();
+            for (Object stream : (Collection) streams) {
+                acceptedStreams.add(stream.toString());
+            }
+        }
+
+        return new SinkWorker(sinkName, sink,
+                queueSize == null ? DEFAULT_QUEUE_SIZE : Integer.valueOf(queueSize.toString()),
+                overflowPolicy, acceptedStreams);
+    }
+
+    /**
+     * Resolves the sinks that will receive the messages of an output stream.
+     * <p>If the siddhi plan specifies a list of sink names for the stream, the route contains
+     * those sinks. Otherwise, it contains every sink that accepts the output stream or its
+     * destination topic, as specified with the key "streams" on the config file.
+     *
+     * @param streamName The output stream
+     * @param topic The destination topic
+     * @param sinkNames The names of the sinks specified by the siddhi plan, or null
+     * @return The route of the output stream
+     */
+
+    public SinkRoute route(String streamName, String topic, List<String> sinkNames) {
+        List<SinkWorker> workers = new ArrayList<>();
+
+        if (sinkNames != null) {
+            for (String sinkName : sinkNames) {
+                SinkWorker worker = sinks.get(sinkName);
+
+                if (worker != null) {
+                    workers.add(worker);
+                } else {
+                    log.warn("Unknown sink {} for output stream {}", sinkName, streamName);
+                }
+            }
+        } else {
+            for (SinkWorker worker : sinks.values()) {
+                if (worker.accepts(streamName, topic)) workers.add(worker);
+            }
+        }
+
+        return new SinkRoute(workers.toArray(new SinkWorker[workers.size()]));
+    }
+
     /**
     * Create a new SinksManager with a Console Sink as the sole Sink
     * */
@@ -79,36 +158,53 @@ public class SinksManager {
 
     /**
      * Sends a start signal to all the sinks instantiated, so they
-     * can start.
+     * can start, and starts their workers.
      */
 
     public void start() {
-        for (Sink s : sinks.values()) {
-            if (s != null) {
-                s.start();
-            }
+        for (SinkWorker worker : sinks.values()) {
+            worker.start();
         }
     }
 
     /**
      * Sends a shutdown signal to all the sinks instantiated, so they
-     * can close connections or release resources.
+     * can close connections or release resources. The messages pending
+     * on the queues are processed first.
      */
 
     public void shutdown() {
-        for (Sink sink : sinks.values()) {
-            sink.shutdown();
+        for (SinkWorker worker : sinks.values()) {
+            worker.shutdown();
         }
     }
 
     /**
-     * Sends a process signal to all the sinks instantiated.
+     * Enqueues the message for all the sinks instantiated that accept its output
+     * stream. The sinks will process it on their own threads.
+     *
+     * @see #route(String, String, List)
      */
 
     public void process(String streamName, String topic, Map<String, Object> message) {
-        for (Sink sink : sinks.values()) {
-            sink.process(streamName, topic, message);
+        for (SinkWorker worker : sinks.values()) {
+            if (worker.accepts(streamName, topic)) {
+                worker.process(streamName, topic, message);
+            }
         }
     }
 
+    /**
+     * @return the number of messages discarded by each sink because its queue was full, by sink name
+     */
+
+    public Map<String, Long> getDropped() {
+        Map<String, Long> dropped = new HashMap<>();
+
+        for (Map.Entry<String, SinkWorker> entry : sinks.entrySet()) {
+            dropped.put(entry.getKey(), entry.getValue().getDropped());
+        }
+
+        return dropped;
+    }
 }
@@ -0,0 +1,216 @@
+package net.redborder.cep.sinks.kafka;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.sinks.RowMap;
+import net.redborder.cep.sinks.Sink;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * This class implements a Sink that sends messages to Apache Kafka using the
+ * Kafka producer client, instead of the legacy producer used by {@link KafkaSink}.
+ * <p>Each message is serialized as JSON straight into a per-thread reusable buffer (rows
+ * produced by Siddhi are written from their values, see {@link RowMap}), and
+ * the producer accumulates the messages of each partition into batches that are sent
+ * asynchronously. Send failures are reported through a callback, which logs them and
+ * counts them.
+ * <p>The following properties are read from the config file:
+ * <ul>
+ *     <li>kafka_brokers: The list of Kafka brokers, "127.0.0.1:9092" by default</li>
+ *     <li>linger_ms: The time that the producer waits to fill a batch, 5 by default</li>
+ *     <li>batch_size: The maximum size of a batch in bytes, 65536 by default</li>
+ *     <li>compression: The compression codec of the batches, "lz4" by default</li>
+ *     <li>acks: The acknowledgements that the producer requires, "1" by default</li>
+ *     <li>retries: The number of times that a failed batch is retried, 3 by default</li>
+ *     <li>buffer_memory, max_block_ms: Passed to the producer as the Kafka properties
+ *     with the same name, using dots instead of underscores</li>
+ *     <li>key_field: The message field used as the Kafka key, "client_mac" by default</li>
+ *     <li>keys: A map with the key field of each topic, overriding key_field</li>
+ * </ul>
+ *
+ * @see Sink
+ */
+
+public class KafkaProducerSink extends Sink {
+    private static final Logger log = LogManager.getLogger(KafkaProducerSink.class);
+
+    // The properties that are passed to the Kafka producer as they are, if present
+    private static final String[] TUNING_PROPERTIES = { "buffer_memory", "max_block_ms" };
+
+    // The kafka producer
+    private KafkaProducer<byte[], byte[]> producer;
+
+    // The producer configuration
+    private final Properties props = new Properties();
+
+    // A JSON serializer from Jackson, and the factory of its generators
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    // The buffer where each thread serializes its messages. It is reused between messages.
+    private final ThreadLocal<ByteArrayBuilder> buffers = new ThreadLocal<ByteArrayBuilder>() {
+        @Override
+        protected ByteArrayBuilder initialValue() {
+            return new ByteArrayBuilder(1024);
+        }
+    };
+
+    // The default key field, and the key field of each topic
+    private final String keyField;
+    private final Map<String, String> topicKeys;
+
+    // The number of messages that couldn't be sent, shared by the kafka sinks
+    private final Counter failedCount = Metrics.counter("sink.kafka.failed");
+
+    // The callback that receives the result of each send
+    private final Callback callback = new Callback() {
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+            if (exception != null) {
+                failedCount.inc();
+                log.error("Couldn't send message to kafka ({} failed so far): {}", failedCount.get(), exception.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Creates a new KafkaProducerSink.
+     * The producer is created when the sink is started.
+     *
+     * @param properties KafkaProducerSink properties
+     */
+
+    @SuppressWarnings("unchecked")
+    public KafkaProducerSink(Map<String, Object> properties) {
+        super(properties);
+
+        props.put("bootstrap.servers", getProperty("kafka_brokers", "127.0.0.1:9092").toString());
+        props.put("linger.ms", getProperty("linger_ms", 5).toString());
+        props.put("batch.size", getProperty("batch_size", 65536).toString());
+        props.put("compression.type", getCompression());
+        props.put("acks", getProperty("acks", "1").toString());
+        props.put("retries", getProperty("retries", 3).toString());
+        props.put("key.serializer", ByteArraySerializer.class.getName());
+        props.put("value.serializer", ByteArraySerializer.class.getName());
+
+        for (String property : TUNING_PROPERTIES) {
+            Object value = getProperty(property, null);
+            if (value != null) props.put(property.replace('_', '.'), value.toString());
+        }
+
+        keyField = getProperty("key_field", "client_mac").toString();
+
+        Object keys = getProperty("keys", null);
+        topicKeys = keys instanceof Map ? (Map<String, String>) keys : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * Starts the kafka producer.
+     */
+
+    @Override
+    public void start() {
+        producer = new KafkaProducer<>(props);
+    }
+
+    /**
+     * This method sends the given message to a given kafka topic.
+     *
+     * @param streamName The message input stream (unused)
+     * @param topic The destination topic
+     * @param message The message
+     */
+
+    @Override
+    public void process(String streamName, String topic, Map<String, Object> message) {
+        String field = topicKeys.containsKey(topic) ? topicKeys.get(topic) : keyField;
+        Object key = message.get(field);
+        byte[] keyBytes = key == null ? null : key.toString().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            producer.send(new ProducerRecord<>(topic, keyBytes, serialize(message)), callback);
+        } catch (IOException e) {
+            log.error("Error converting map to json: {}", message);
+        } catch (RuntimeException e) {
+            failedCount.inc();
+            log.error("Couldn't send message to kafka topic {}: {}", topic, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the kafka producer and releases its resources.
+     * The messages that are pending are sent before closing.
+     */
+
+    @Override
+    public void shutdown() {
+        if (producer != null) producer.close();
+    }
+
+    /**
+     * @return the number of messages that the kafka sinks couldn't send, also
+     *         served as the metric "sink.kafka.failed"
+     */
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Serializes a message as JSON on the buffer of the current thread.
+     *
+     * @param message The message
+     * @return The JSON bytes of the message
+     * @throws IOException if the message couldn't be serialized
+     */
+
+    private byte[] serialize(Map<String, Object> message) throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        buffer.reset();
+
+        if (message instanceof RowMap) {
+            // Write the row straight from its values
+            JsonGenerator generator = jsonFactory.createGenerator(buffer);
+            ((RowMap) message).writeTo(generator);
+            generator.close();
+        } else {
+            objectMapper.writeValue(jsonFactory.createGenerator(buffer), message);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Gets the compression codec from the property "compression". The Kafka client
+     * used by the CEP doesn't support zstd, so lz4 is used instead.
+     *
+     * @return The compression codec
+     */
+
+    private String getCompression() {
+        String compression = getProperty("compression", "lz4").toString().toLowerCase();
+
+        if (compression.equals("zstd")) {
+            log.warn("Compression zstd is not supported by the kafka client, using lz4");
+            compression = "lz4";
+        }
+
+        return compression;
+    }
+}
@@ -0,0 +1,159 @@
+package net.redborder.cep.sinks.latency;
+
+import net.redborder.cep.sinks.Sink;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements a Sink that records the end-to-end latency of the messages,
+ * from their ingestion by a GeneratorSource to their arrival to this sink.
+ * <p>The latencies are recorded on a histogram, and the sink periodically logs the
+ * throughput and the latency percentiles of the last interval. When the sink stops,
+ * it logs the percentiles of the whole run, and writes its percentile distribution
+ * to a file if the property "output_file" is present.
+ * <p>The following properties are read from the config file:
+ * <ul>
+ *     <li>latency_field: The field that stores the ingestion time, "ingestion_nanos" by default</li>
+ *     <li>report_interval_s: The seconds between reports, 10 by default</li>
+ *     <li>output_file: The file where the percentile distribution is written on shutdown</li>
+ * </ul>
+ *
+ * @see net.redborder.cep.sources.generator.GeneratorSource
+ */
+
+public class LatencySink extends Sink {
+    private static final Logger log = LogManager.getLogger(LatencySink.class);
+
+    // The highest latency that can be recorded, one minute
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    // The recorder of the latencies, that can be read while it is being written
+    private final Recorder recorder = new Recorder(HIGHEST_LATENCY, 3);
+
+    // The latencies of the whole run
+    private final Histogram total = new Histogram(HIGHEST_LATENCY, 3);
+
+    // The field that stores the ingestion time
+    private final String latencyField;
+
+    // The thread that reports the latencies
+    private ScheduledExecutorService reporter;
+
+    // The number of messages without the latency field
+    private long untimed;
+
+    public LatencySink(Map<String, Object> properties) {
+        super(properties);
+        this.latencyField = getProperty("latency_field", "ingestion_nanos").toString();
+    }
+
+    /**
+     * Starts the thread that reports the latencies periodically.
+     */
+
+    @Override
+    public void start() {
+        final long interval = Long.valueOf(getProperty("report_interval_s", 10).toString());
+
+        reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report(interval);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Records the latency of the message.
+     *
+     * @param streamName The message output stream (unused)
+     * @param topic The destination topic (unused)
+     * @param message The message
+     */
+
+    @Override
+    public void process(String streamName, String topic, Map<String, Object> message) {
+        Object ingestion = message.get(latencyField);
+
+        if (ingestion instanceof Number) {
+            long latency = System.nanoTime() - ((Number) ingestion).longValue();
+            recorder.recordValue(Math.max(0, Math.min(latency, HIGHEST_LATENCY)));
+        } else {
+            untimed++;
+        }
+    }
+
+    /**
+     * Stops the reports, and logs the latencies of the whole run.
+     */
+
+    @Override
+    public void shutdown() {
+        if (reporter != null) reporter.shutdownNow();
+
+        synchronized (total) {
+            total.add(recorder.getIntervalHistogram());
+            log.info("Total: {}", summary(total, 0));
+
+            Object outputFile = getProperty("output_file", null);
+            if (outputFile != null) {
+                try (PrintStream output = new PrintStream(outputFile.toString())) {
+                    total.outputPercentileDistribution(output, 1000.0);
+                } catch (FileNotFoundException e) {
+                    log.error("Couldn't write the latencies file " + outputFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs the latencies of the last interval.
+     *
+     * @param interval The seconds of the interval
+     */
+
+    private void report(long interval) {
+        Histogram histogram = recorder.getIntervalHistogram();
+
+        synchronized (total) {
+            total.add(histogram);
+        }
+
+        log.info("Last {}s: {}", interval, summary(histogram, interval));
+        if (untimed > 0) log.warn("{} messages without the field {}", untimed, latencyField);
+    }
+
+    /**
+     * Builds a summary of the latencies of a histogram, in microseconds.
+     *
+     * @param histogram The histogram
+     * @param interval The seconds of the histogram, or 0 to skip the throughput
+     * @return The summary
+     */
+
+    private static String summary(Histogram histogram, long interval) {
+        StringBuilder summary = new StringBuilder();
+        summary.append("count=").append(histogram.getTotalCount());
+
+        if (interval > 0) {
+            summary.append(" rate=").append(histogram.getTotalCount() / interval).append("/s");
+        }
+
+        summary.append(" p50=").append(histogram.getValueAtPercentile(50) / 1000).append("us")
+                .append(" p99=").append(histogram.getValueAtPercentile(99) / 1000).append("us")
+                .append(" p99.9=").append(histogram.getValueAtPercentile(99.9) / 1000).append("us")
+                .append(" max=").append(histogram.getMaxValue() / 1000).append("us");
+
+        return summary.toString();
+    }
+}
@@ -1,15 +1,19 @@
 package net.redborder.cep.sources;
 
-import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.*;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import net.redborder.cep.siddhi.StreamSchema;
 import net.redborder.cep.sources.disruptor.EventProducer;
-import net.redborder.cep.sources.disruptor.MapEvent;
-import net.redborder.cep.sources.disruptor.MapEventFactory;
+import net.redborder.cep.sources.disruptor.RowEvent;
+import net.redborder.cep.sources.disruptor.RowEventFactory;
+import net.redborder.cep.sources.parsers.Parser;
 import net.redborder.cep.sources.parsers.ParsersManager;
 import net.redborder.cep.util.ConfigData;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
@@ -40,18 +44,26 @@ public abstract class Source {
      * in order to be started later with the start method (implemented by children).
      *
      * @param parsersManager Instance of ParserManager that will serve parsers to this source instance
-     * @param eventHandler Instance of EventHandler that will receive the events generated by this source instance
+     * @param eventHandlers Instances of EventHandler that will receive the events generated by this source instance.
+     *                      Each one of them consumes the events in parallel, on its own thread.
      * @param properties Map of properties associated with this source
      */
 
-    public Source(ParsersManager parsersManager, EventHandler eventHandler, Map<String, Object> properties) {
+    public Source(ParsersManager parsersManager, EventHandler[] eventHandlers, Map<String, Object> properties) {
         // Save the references for later use
         this.parsersManager = parsersManager;
         this.properties = properties;
 
         // Create the ring buffer for this topic and start it
-        Disruptor<MapEvent> disruptor = new Disruptor<>(new MapEventFactory(), ConfigData.getRingBufferSize(), Executors.newCachedThreadPool());
-        disruptor.handleEventsWith(eventHandler);
+        Integer ringBufferSize = getRingBufferSize();
+        ProducerType producerType = getProducerType();
+        WaitStrategy waitStrategy = getWaitStrategy();
+        log.info("Creating ring buffer with size {}, producer type {} and wait strategy {}",
+                ringBufferSize, producerType, waitStrategy.getClass().getSimpleName());
+
+        Disruptor<RowEvent> disruptor = new Disruptor<>(new RowEventFactory(), ringBufferSize,
+                Executors.newCachedThreadPool(), producerType, waitStrategy);
+        disruptor.handleEventsWith(eventHandlers);
         disruptor.start();
 
         // Create the event producer that will receive the events produced by
@@ -76,6 +88,68 @@ public abstract class Source {
         eventProducer.putData(streamName, data);
     }
 
+    /**
+     * Sends a new raw message to the stream.
+     * <p>The bytes in the given range are handed to the parser associated with the stream
+     * without decoding them into a string first, so sources that receive bytes from the
+     * network should prefer this method over {@link #send(String, String)}.
+     *
+     * @param streamName The stream that will receive the message
+     * @param buf The buffer that holds the message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     */
+
+    public void send(String streamName, byte[] buf, int off, int len) {
+        send(StreamSchema.of(streamName), parsersManager.getParserByStream(streamName), buf, off, len);
+    }
+
+    /**
+     * Sends a new raw message to the stream with the given schema, parsing it with the given parser.
+     * <p>The message is parsed straight into the ring buffer entry. Sources that send many messages
+     * to the same stream should resolve the schema and the parser once and use this method.
+     *
+     * @param schema The schema of the stream that will receive the message
+     * @param parser The parser associated with the stream
+     * @param buf The buffer that holds the message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     */
+
+    public void send(StreamSchema schema, Parser parser, byte[] buf, int off, int len) {
+        eventProducer.putData(schema, parser, buf, off, len);
+    }
+
+    /**
+     * Sends a list of raw messages to the stream with the given schema, parsing them with the given parser.
+     * <p>The messages are published into the ring buffer in bulk, so sources that receive messages
+     * in batches, like the ones polled from Kafka, should prefer this method.
+     *
+     * @param schema The schema of the stream that will receive the messages
+     * @param parser The parser associated with the stream
+     * @param messages The messages that will be sent
+     */
+
+    public void send(StreamSchema schema, Parser parser, List<byte[]> messages) {
+        eventProducer.putData(schema, parser, messages);
+    }
+
+    /**
+     * Sends the messages of a list that fit on the ring buffer to the stream with the given schema,
+     * without waiting for free entries. Sources that can stop receiving messages, like the ones
+     * that poll them from Kafka, should use this method to apply backpressure instead of blocking.
+     *
+     * @param schema The schema of the stream that will receive the messages
+     * @param parser The parser associated with the stream
+     * @param messages The messages that will be sent
+     * @param from The index of the first message that will be sent
+     * @return the number of messages sent, starting at the given index
+     */
+
+    public int trySend(StreamSchema schema, Parser parser, List<byte[]> messages, int from) {
+        return eventProducer.tryPutData(schema, parser, messages, from);
+    }
+
     /**
      * Sends a new map message to the producer.
      *
@@ -97,7 +171,98 @@ public abstract class Source {
      */
 
     public Object getProperty(String propertyName){
-        return properties.get(propertyName);
+        return getProperty(propertyName, null);
+    }
+
+    /**
+     * Gets a property from the source properties, or a default value if the source
+     * has no properties or the property is not present.
+     *
+     * @param propertyName The property that will be returned
+     * @param defaultValue The value returned if the property is not present
+     * @return The value associated with the property name specified, or the default value
+     */
+
+    public Object getProperty(String propertyName, Object defaultValue) {
+        Object value = properties == null ? null : properties.get(propertyName);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Gets the size of the ring buffer of this source from the property "ring_buffer_size".
+     * If it isn't present, the global ring buffer size from the config file is used.
+     *
+     * @return The size of the ring buffer
+     * @see ConfigData#getRingBufferSize()
+     */
+
+    protected Integer getRingBufferSize() {
+        Object size = getProperty("ring_buffer_size", ConfigData.getRingBufferSize());
+        return Integer.valueOf(size.toString());
+    }
+
+    /**
+     * Gets the producer type of the ring buffer of this source from the property "producer_type",
+     * that can be "single" or "multi". If it isn't present, the default producer type of the
+     * source implementation is used.
+     * <p>A single producer ring buffer is faster, but it must only be used when a single thread
+     * sends the messages of the source.
+     *
+     * @return The producer type of the ring buffer
+     * @see #getDefaultProducerType()
+     */
+
+    protected ProducerType getProducerType() {
+        Object producerType = getProperty("producer_type");
+
+        if (producerType == null) {
+            return getDefaultProducerType();
+        } else if (producerType.toString().equalsIgnoreCase("single")) {
+            return ProducerType.SINGLE;
+        } else if (producerType.toString().equalsIgnoreCase("multi")) {
+            return ProducerType.MULTI;
+        } else {
+            log.warn("Unknown producer type {}, using the default one", producerType);
+            return getDefaultProducerType();
+        }
+    }
+
+    /**
+     * Gets the producer type used when the property "producer_type" is not present. Sources
+     * that send all their messages from a single thread should override it to return SINGLE.
+     *
+     * @return The default producer type of this source, MULTI unless overridden
+     */
+
+    protected ProducerType getDefaultProducerType() {
+        return ProducerType.MULTI;
+    }
+
+    /**
+     * Gets the strategy that the consumers of the ring buffer of this source use to wait
+     * for new events, from the property "wait_strategy". It can be "blocking" (the default),
+     * "sleeping", "yielding" or "busy_spin". The last two strategies keep the consumer threads
+     * busy, so they should only be used when there are cores dedicated to them.
+     *
+     * @return The wait strategy of the ring buffer
+     */
+
+    protected WaitStrategy getWaitStrategy() {
+        String waitStrategy = getProperty("wait_strategy", "blocking").toString().toLowerCase();
+
+        switch (waitStrategy) {
+            case "blocking":
+                return new BlockingWaitStrategy();
+            case "sleeping":
+                return new SleepingWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busy_spin":
+                return new BusySpinWaitStrategy();
+            default:
+                log.warn("Unknown wait strategy {}, using blocking", waitStrategy);
+                return new BlockingWaitStrategy();
+        }
     }
 
     /**
@@ -135,4 +300,37 @@ public abstract class Source {
      */
 
     public abstract void shutdown();
+
+    /**
+     * Stops sending messages to the ring buffer until {@link #resume()} is called, so the
+     * state of the siddhi plans can be snapshotted consistently with the messages consumed.
+     * <p>Sources that track the position of the messages consumed, like the Kafka sources,
+     * must override this method, and {@link #commit()} and {@link #resume()}. The default
+     * implementation does nothing.
+     *
+     * @return true if the source is paused, false if it couldn't be paused
+     * @see net.redborder.cep.siddhi.SnapshotManager
+     */
+
+    public boolean pause() {
+        return true;
+    }
+
+    /**
+     * Commits the position of the messages sent to the ring buffer before the source was paused,
+     * so they are not consumed again when the CEP restarts. It is only called while the source is
+     * paused, once the state of the siddhi plans has been snapshotted.
+     * The default implementation does nothing.
+     */
+
+    public void commit() {
+    }
+
+    /**
+     * Resumes sending messages to the ring buffer after a {@link #pause()}.
+     * The default implementation does nothing.
+     */
+
+    public void resume() {
+    }
 }
@@ -1,6 +1,8 @@
 package net.redborder.cep.sources;
 
 import com.lmax.disruptor.EventHandler;
+import net.redborder.cep.metrics.Gauge;
+import net.redborder.cep.metrics.Metrics;
 import net.redborder.cep.sources.parsers.ParsersManager;
 import net.redborder.cep.util.ConfigData;
 import org.apache.logging.log4j.LogManager;
@@ -8,7 +10,10 @@ import org.apache.logging.log4j.Logger;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,10 +46,10 @@ public class SourcesManager {
      * Finally, it starts each of the sources instances.
      *
      * @param parsersManager A ParsersManager object that will server parsers to the sources instances
-     * @param eventHandler An EventHandler object that will receive messages generated by the sources
+     * @param eventHandlers The EventHandler objects that will receive messages generated by the sources
      */
 
-    public SourcesManager(ParsersManager parsersManager, EventHandler eventHandler) {
+    public SourcesManager(ParsersManager parsersManager, EventHandler... eventHandlers) {
         // For each sources specified on the config file...
         for (Map<String, Object> sourceEntry : ConfigData.getSources()) {
             // Get its name, class and properties
@@ -55,9 +60,25 @@ public class SourcesManager {
             try {
                 // Get the class from the full qualified class name and instanciate it
                 Class sourceClass = Class.forName(sourceNameClass);
-                Constructor<Source> constructor = sourceClass.getConstructor(ParsersManager.class, EventHandler.class, Map.class);
-                Source source = constructor.newInstance(new Object[]{parsersManager, eventHandler, properties});
+                Constructor<Source> constructor = sourceClass.getConstructor(ParsersManager.class, EventHandler[].class, Map.class);
+                final Source source = constructor.newInstance(new Object[]{parsersManager, eventHandlers, properties});
                 sources.put(sourceName, source);
+
+                // Expose the occupancy of the ring buffer of the source
+                Metrics.gauge("source." + sourceName + ".ring_remaining", new Gauge() {
+                    @Override
+                    public long value() {
+                        return source.eventProducer.getRemainingCapacity();
+                    }
+                });
+
+                // And the time that the source waited for free entries on it
+                Metrics.gauge("source." + sourceName + ".blocked_ms", new Gauge() {
+                    @Override
+                    public long value() {
+                        return source.eventProducer.getBlockedMillis();
+                    }
+                });
             } catch (ClassNotFoundException e) {
                 log.error("Couldn't find the class associated with the source " + sourceNameClass);
             } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException e) {
@@ -83,6 +104,85 @@ public class SourcesManager {
         }
     }
 
+    /**
+     * Pauses every source, and waits until the messages that they already sent have
+     * been processed by the consumers of their ring buffers.
+     *
+     * @param timeoutMillis The maximum time to wait for the ring buffers to be drained
+     * @return true if every source is paused and drained. If false, the sources that
+     *         were paused have been resumed.
+     * @see Source#pause()
+     */
+
+    public boolean pause(long timeoutMillis) {
+        List<Source> paused = new ArrayList<>();
+
+        for (Source source : sources.values()) {
+            if (source.pause()) {
+                paused.add(source);
+            } else {
+                log.warn("Couldn't pause source {}", source.getClass().getSimpleName());
+                resume(paused);
+                return false;
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        for (Source source : sources.values()) {
+            while (!source.eventProducer.isDrained()) {
+                if (System.currentTimeMillis() > deadline) {
+                    log.warn("The ring buffers weren't drained after {} ms", timeoutMillis);
+                    resume(paused);
+                    return false;
+                }
+
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    resume(paused);
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Commits the position of the messages consumed by every source.
+     * It must only be called while the sources are paused.
+     *
+     * @see Source#commit()
+     */
+
+    public void commit() {
+        for (Source source : sources.values()) {
+            source.commit();
+        }
+    }
+
+    /**
+     * Resumes every source after a pause.
+     */
+
+    public void resume() {
+        resume(sources.values());
+    }
+
+    /**
+     * Resumes the given sources.
+     *
+     * @param paused The sources that will be resumed
+     */
+
+    private void resume(Collection<Source> paused) {
+        for (Source source : paused) {
+            source.resume();
+        }
+    }
+
     /**
      * Sends a shutdown signal to all the sources instanciated, so they
      * can close connections or release resources.
@@ -1,18 +1,39 @@
 package net.redborder.cep.sources.disruptor;
 
-import com.lmax.disruptor.EventTranslatorTwoArg;
+import com.lmax.disruptor.InsufficientCapacityException;
 import com.lmax.disruptor.RingBuffer;
+import net.redborder.cep.siddhi.StreamSchema;
+import net.redborder.cep.sources.parsers.Parser;
+import net.redborder.cep.sources.parsers.RowParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class represents a producer than can write in a thread-safe
  * environment into the ring buffer.
+ * <p>When the ring buffer is full, the putData methods wait until the consumers free
+ * enough entries, parking the producer thread between attempts instead of spinning,
+ * and account the time spent waiting. Producers that can't afford to wait can use the
+ * tryPutData methods, that only publish the messages that fit.
  */
 
 public class EventProducer {
+    private static final Logger log = LogManager.getLogger(EventProducer.class);
+
     // The ring buffer where the messages will be written
-    private final RingBuffer<MapEvent> ringBuffer;
+    private final RingBuffer<RowEvent> ringBuffer;
+
+    // The time that a producer waits between attempts to claim entries of a full ring buffer
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // The time that the producers waited for free entries, in nanoseconds
+    private final AtomicLong blockedNanos = new AtomicLong();
 
     /**
      * Creates a new producer for the given ring buffer.
@@ -20,33 +41,252 @@ public class EventProducer {
      * @param ringBuffer The ring buffer where the producer will write
      */
 
-    public EventProducer(RingBuffer<MapEvent> ringBuffer)
+    public EventProducer(RingBuffer<RowEvent> ringBuffer)
     {
         this.ringBuffer = ringBuffer;
     }
 
     /**
-     * For each event published into the ring buffer, LMAX Disruptor will create a Map Event
-     * with the factory MapEventFactory and call this method to transform the published message
-     * into a MapEvent message.
+     * @return the number of entries of the ring buffer that are free to be written
      */
 
-    private static final EventTranslatorTwoArg<MapEvent, String, Map<String, Object>> TRANSLATOR =
-        new EventTranslatorTwoArg<MapEvent, String, Map<String, Object>>() {
-            @Override
-            public void translateTo(MapEvent event, long sequence, String source, Map<String, Object> data) {
-                event.setSource(source);
-                event.setData(data);
-            }
-        };
+    public long getRemainingCapacity() {
+        return ringBuffer.remainingCapacity();
+    }
+
+    /**
+     * @return the number of entries of the ring buffer
+     */
+
+    public int getBufferSize() {
+        return ringBuffer.getBufferSize();
+    }
+
+    /**
+     * @return the fraction of the entries of the ring buffer that are pending to be consumed
+     */
+
+    public double getOccupancy() {
+        return 1 - (double) ringBuffer.remainingCapacity() / ringBuffer.getBufferSize();
+    }
+
+    /**
+     * @return true if the consumers have processed every entry published on the ring buffer
+     */
+
+    public boolean isDrained() {
+        return ringBuffer.remainingCapacity() == ringBuffer.getBufferSize();
+    }
+
+    /**
+     * @return the total time that the producers waited for free entries, in milliseconds
+     */
+
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
 
     /**
-     * Publish a new message into the ring buffer
+     * Publish a new map message into the ring buffer
      * @param source The input stream name
      * @param data The message
      */
 
     public void putData(String source, Map<String, Object> data) {
-        ringBuffer.publishEvent(TRANSLATOR, source, data);
+        StreamSchema schema = StreamSchema.of(source);
+
+        if (schema != null) {
+            putData(schema, data);
+        } else {
+            log.warn("Received message from unknown stream {}", source);
+        }
+    }
+
+    /**
+     * Publish a new map message into the ring buffer.
+     * Only the attributes of the stream are copied into the ring buffer entry.
+     *
+     * @param schema The input stream schema
+     * @param data The message
+     */
+
+    public void putData(StreamSchema schema, Map<String, Object> data) {
+        long sequence = claim(1);
+
+        try {
+            RowEvent event = ringBuffer.get(sequence);
+            schema.project(data, event.reset(schema));
+            event.setValid(true);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    /**
+     * Parses a raw message and publishes it into the ring buffer.
+     * <p>The message is parsed after claiming the ring buffer entry, so a RowParser
+     * writes the attribute values straight into the row of the entry. Other parsers
+     * produce a map that is projected into the row. If the message can't be parsed,
+     * the entry is published as invalid and it will be ignored by the consumers.
+     *
+     * @param schema The input stream schema
+     * @param parser The parser associated with the input stream
+     * @param buf The buffer that holds the message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     */
+
+    public void putData(StreamSchema schema, Parser parser, byte[] buf, int off, int len) {
+        long sequence = claim(1);
+
+        try {
+            fill(ringBuffer.get(sequence), schema, parser, buf, off, len);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    /**
+     * Parses a list of raw messages and publishes them into the ring buffer in bulk.
+     * <p>The entries are claimed and published in ranges as large as the ring buffer
+     * allows, so the producer pays the cost of the sequence coordination once per range
+     * instead of once per message. Null messages are published as invalid entries.
+     *
+     * @param schema The input stream schema
+     * @param parser The parser associated with the input stream
+     * @param messages The messages
+     */
+
+    public void putData(StreamSchema schema, Parser parser, List<byte[]> messages) {
+        int bufferSize = ringBuffer.getBufferSize();
+        int index = 0;
+
+        while (index < messages.size()) {
+            int count = Math.min(messages.size() - index, bufferSize);
+            publish(claim(count), count, schema, parser, messages, index);
+            index += count;
+        }
+    }
+
+    /**
+     * Parses a list of raw messages and publishes into the ring buffer the ones that fit,
+     * without waiting for the consumers.
+     *
+     * @param schema The input stream schema
+     * @param parser The parser associated with the input stream
+     * @param messages The messages
+     * @param from The index of the first message that will be published
+     * @return the number of messages published, starting at the given index
+     * @see #putData(StreamSchema, Parser, List)
+     */
+
+    public int tryPutData(StreamSchema schema, Parser parser, List<byte[]> messages, int from) {
+        int count = (int) Math.min(messages.size() - from, ringBuffer.remainingCapacity());
+        if (count <= 0) return 0;
+
+        try {
+            publish(ringBuffer.tryNext(count), count, schema, parser, messages, from);
+            return count;
+        } catch (InsufficientCapacityException e) {
+            // Another producer claimed the entries first
+            return 0;
+        }
+    }
+
+    /**
+     * Claims the given number of entries of the ring buffer, waiting for the consumers
+     * to free them if they are not available.
+     *
+     * @param count The number of entries
+     * @return the sequence of the last entry claimed
+     */
+
+    private long claim(int count) {
+        try {
+            return ringBuffer.tryNext(count);
+        } catch (InsufficientCapacityException e) {
+            long start = System.nanoTime();
+
+            try {
+                while (true) {
+                    LockSupport.parkNanos(BACKOFF_NANOS);
+
+                    try {
+                        return ringBuffer.tryNext(count);
+                    } catch (InsufficientCapacityException ignored) {
+                        // The consumers haven't freed the entries yet
+                    }
+                }
+            } finally {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Parses a range of a list of raw messages into claimed entries and publishes them.
+     * <p>The claimed entries are always published. If the parser fails, the entries that
+     * weren't filled are published as invalid, so the consumers don't process again the
+     * messages that they held on the previous lap of the ring buffer.
+     *
+     * @param hi The sequence of the last entry claimed
+     * @param count The number of entries claimed
+     * @param schema The input stream schema
+     * @param parser The parser associated with the input stream
+     * @param messages The messages
+     * @param from The index of the message that will be parsed into the first entry
+     */
+
+    private void publish(long hi, int count, StreamSchema schema, Parser parser, List<byte[]> messages, int from) {
+        long lo = hi - count + 1;
+        long sequence = lo;
+        int index = from;
+
+        try {
+            for (; sequence <= hi; sequence++) {
+                byte[] message = messages.get(index++);
+                RowEvent event = ringBuffer.get(sequence);
+
+                if (message != null) {
+                    fill(event, schema, parser, message, 0, message.length);
+                } else {
+                    event.reset(schema);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (; sequence <= hi; sequence++) {
+                ringBuffer.get(sequence).reset(schema);
+            }
+
+            throw e;
+        } finally {
+            ringBuffer.publish(lo, hi);
+        }
+    }
+
+    /**
+     * Parses a raw message into a ring buffer entry.
+     *
+     * @param event The ring buffer entry
+     * @param schema The input stream schema
+     * @param parser The parser associated with the input stream
+     * @param buf The buffer that holds the message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     */
+
+    private void fill(RowEvent event, StreamSchema schema, Parser parser, byte[] buf, int off, int len) {
+        Object[] row = event.reset(schema);
+
+        if (parser instanceof RowParser) {
+            event.setValid(((RowParser) parser).parse(buf, off, len, row));
+        } else {
+            Map<String, Object> data = parser.parse(buf, off, len);
+
+            if (data != null) {
+                schema.project(data, row);
+                event.setValid(true);
+            }
+        }
     }
 }
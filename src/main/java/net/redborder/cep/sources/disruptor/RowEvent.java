@@ -0,0 +1,72 @@
+package net.redborder.cep.sources.disruptor;
+
+import net.redborder.cep.siddhi.StreamSchema;
+
+import java.util.Arrays;
+
+/**
+ * This class represents an event from a given source.
+ * <p>The event is stored as a positional row, with one value for each attribute
+ * of the input stream, ordered as the stream schema defines. Each entry of the ring
+ * buffer keeps its row between events, so the parsers can write the attribute values
+ * directly into it.
+ *
+ * @see StreamSchema
+ */
+
+public class RowEvent {
+    // The input stream schema
+    private StreamSchema schema;
+
+    // The attribute values of the event, reused between events
+    private Object[] row;
+
+    // False if the message could not be parsed
+    private boolean valid;
+
+    /**
+     * Prepares the event to hold a new message from the given stream.
+     * The row is cleared and resized if needed.
+     *
+     * @param schema The input stream schema
+     * @return The row where the attribute values must be written
+     */
+
+    public Object[] reset(StreamSchema schema) {
+        this.schema = schema;
+        this.valid = false;
+
+        if (row == null || row.length != schema.size()) {
+            row = new Object[schema.size()];
+        } else {
+            Arrays.fill(row, null);
+        }
+
+        return row;
+    }
+
+    // Marks the event as valid or invalid
+    public void setValid(boolean valid) {
+        this.valid = valid;
+    }
+
+    // Returns true if the event holds a parsed message
+    public boolean isValid() {
+        return valid;
+    }
+
+    // Returns the input stream schema
+    public StreamSchema getSchema() {
+        return schema;
+    }
+
+    // Returns the input stream name
+    public String getSource() {
+        return schema == null ? null : schema.getName();
+    }
+
+    // Returns the message as a row
+    public Object[] getRow() {
+        return row;
+    }
+}
@@ -6,9 +6,9 @@ import com.lmax.disruptor.EventFactory;
  * A factory class that creates new events for LMAX disruptor
  */
 
-public class MapEventFactory implements EventFactory<MapEvent>{
+public class RowEventFactory implements EventFactory<RowEvent>{
     @Override
-    public MapEvent newInstance() {
-        return new MapEvent();
+    public RowEvent newInstance() {
+        return new RowEvent();
     }
 }
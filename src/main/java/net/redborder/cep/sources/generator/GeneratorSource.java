@@ -0,0 +1,251 @@
+package net.redborder.cep.sources.generator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.dsl.ProducerType;
+import net.redborder.cep.siddhi.StreamSchema;
+import net.redborder.cep.sources.Source;
+import net.redborder.cep.sources.parsers.ParsersManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class implements a Source that generates events at a target rate, so the
+ * CEP can be load tested without Kafka or ZooKeeper.
+ * <p>The events are replayed from a file with one JSON message per line, in a loop,
+ * or generated with random values for the attributes of each stream. Before sending
+ * each event, the source stores its ingestion time (from System.nanoTime) on the latency
+ * field, so a LatencySink can measure the end-to-end latency of the rules that select it.
+ * <p>The following properties are read from the config file:
+ * <ul>
+ *     <li>rate: The number of events per second, 0 (the default) for as many as possible</li>
+ *     <li>count: The number of events to send, 0 (the default) for no limit</li>
+ *     <li>file: The file with the JSON messages to replay. If not present, events are generated.</li>
+ *     <li>latency_field: The attribute that stores the ingestion time, "ingestion_nanos" by default.
+ *     It must be declared as a long attribute on the streams.</li>
+ * </ul>
+ *
+ * @see net.redborder.cep.sinks.latency.LatencySink
+ */
+
+public class GeneratorSource extends Source {
+    private static final Logger log = LogManager.getLogger(GeneratorSource.class);
+
+    // The number of distinct values of each generated string attribute
+    private static final int CARDINALITY = 16;
+
+    // The number of distinct events generated for each stream
+    private static final int GENERATED_EVENTS = 1024;
+
+    // The names of the streams of this source
+    private final List<String> streams = new ArrayList<>();
+
+    // The thread that sends the events
+    private Thread thread;
+
+    // False when the source must stop
+    private volatile boolean running;
+
+    // Do nothing, just call the parent constructor
+    public GeneratorSource(ParsersManager parsersManager, EventHandler[] eventHandlers, Map<String, Object> properties) {
+        super(parsersManager, eventHandlers, properties);
+    }
+
+    /**
+     * The events are sent by a single thread, so the ring buffer
+     * uses a single producer by default.
+     *
+     * @return SINGLE
+     */
+
+    @Override
+    protected ProducerType getDefaultProducerType() {
+        return ProducerType.SINGLE;
+    }
+
+    @Override
+    public void prepare() { }
+
+    @Override
+    public void addStreams(String... streamNames) {
+        streams.addAll(Arrays.asList(streamNames));
+    }
+
+    /**
+     * Starts the thread that sends the events.
+     */
+
+    @Override
+    public void start() {
+        final long rate = Long.valueOf(getProperty("rate", 0).toString());
+        final long count = Long.valueOf(getProperty("count", 0).toString());
+        final String latencyField = getProperty("latency_field", "ingestion_nanos").toString();
+        final List<Event> events = loadEvents();
+
+        if (events.isEmpty()) {
+            log.warn("No events to send");
+            return;
+        }
+
+        log.info("Sending {} distinct events to streams {} at {} events/s", events.size(), streams, rate == 0 ? "max" : rate);
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                generate(events, rate, count, latencyField);
+            }
+        }, "generator-source");
+        thread.start();
+    }
+
+    /**
+     * Sends the events in a loop, pacing them to the target rate.
+     *
+     * @param events The events to send
+     * @param rate The number of events per second, or 0 for no limit
+     * @param count The number of events to send, or 0 for no limit
+     * @param latencyField The field that will store the ingestion time
+     */
+
+    private void generate(List<Event> events, long rate, long count, String latencyField) {
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long start = System.nanoTime();
+        long sent = 0;
+
+        while (running && (count == 0 || sent < count)) {
+            // Wait until the next event is due
+            if (interval > 0) {
+                long delay = start + sent * interval - System.nanoTime();
+                if (delay > 0) LockSupport.parkNanos(delay);
+            }
+
+            Event event = events.get((int) (sent % events.size()));
+            event.data.put(latencyField, System.nanoTime());
+            eventProducer.putData(event.schema, event.data);
+            sent++;
+        }
+
+        log.info("Sent {} events in {} ms", sent, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Loads the events from the file specified with the property "file", or
+     * generates them from the attributes of the streams.
+     *
+     * @return The events
+     */
+
+    @SuppressWarnings("unchecked")
+    private List<Event> loadEvents() {
+        List<Event> events = new ArrayList<>();
+        Object file = getProperty("file");
+
+        if (file != null) {
+            // Every line is sent to every stream of the source
+            ObjectMapper objectMapper = new ObjectMapper();
+
+            try {
+                for (String line : Files.readAllLines(Paths.get(file.toString()), StandardCharsets.UTF_8)) {
+                    if (line.trim().isEmpty()) continue;
+
+                    for (String stream : streams) {
+                        events.add(new Event(StreamSchema.of(stream), objectMapper.readValue(line, Map.class)));
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Couldn't read the events file " + file, e);
+            }
+        } else {
+            Random random = new Random(42);
+
+            for (int i = 0; i < GENERATED_EVENTS; i++) {
+                for (String stream : streams) {
+                    StreamSchema schema = StreamSchema.of(stream);
+                    events.add(new Event(schema, generate(schema, random)));
+                }
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Generates an event with random values for the attributes of a stream.
+     *
+     * @param schema The schema of the stream
+     * @param random The random values source
+     * @return The event as a map
+     */
+
+    private Map<String, Object> generate(StreamSchema schema, Random random) {
+        Map<String, Object> data = new HashMap<>();
+
+        for (int i = 0; i < schema.size(); i++) {
+            String name = schema.getAttributeName(i);
+
+            switch (schema.getAttributeType(i)) {
+                case STRING:
+                    data.put(name, name + "_" + random.nextInt(CARDINALITY));
+                    break;
+                case INT:
+                    data.put(name, random.nextInt(1000));
+                    break;
+                case LONG:
+                    data.put(name, (long) random.nextInt(1000000));
+                    break;
+                case FLOAT:
+                    data.put(name, random.nextFloat());
+                    break;
+                case DOUBLE:
+                    data.put(name, random.nextDouble());
+                    break;
+                case BOOL:
+                    data.put(name, random.nextBoolean());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Stops the thread that sends the events.
+     */
+
+    @Override
+    public void shutdown() {
+        running = false;
+
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * An event of a stream, ready to be sent
+     */
+
+    private static class Event {
+        private final StreamSchema schema;
+        private final Map<String, Object> data;
+
+        private Event(StreamSchema schema, Map<String, Object> data) {
+            this.schema = schema;
+            this.data = data;
+        }
+    }
+}
@@ -2,14 +2,14 @@ package net.redborder.cep.sources.kafka;
 
 import kafka.consumer.ConsumerIterator;
 import kafka.consumer.KafkaStream;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.siddhi.StreamSchema;
 import net.redborder.cep.sources.Source;
 import net.redborder.cep.sources.parsers.Parser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.UnsupportedEncodingException;
-import java.util.Map;
-
 /**
  * A thread that will consume messages from a given partition from a topic.
  * This thread will forward the read messages to a source, that gets from a
@@ -35,6 +35,15 @@ public class Consumer implements Runnable {
     // The source that will receive the consumed messages
     private Source source;
 
+    // The schema of the topic stream
+    private StreamSchema schema;
+
+    // The number of messages consumed from the topic
+    private Counter messages;
+
+    // The gate that stops this thread while the source is paused
+    private ConsumerGate gate;
+
     /**
      * Creates a consumer thread.
      *
@@ -42,10 +51,25 @@ public class Consumer implements Runnable {
      * @param topic The topic associated to the KafkaStream partition.
      */
     public Consumer(KafkaStream stream, Topic topic) {
+        this(stream, topic, new ConsumerGate());
+    }
+
+    /**
+     * Creates a consumer thread that can be paused.
+     *
+     * @param stream The KafkaStream that will be used to consume messages
+     * @param topic The topic associated to the KafkaStream partition.
+     * @param gate The gate that stops the thread while the source is paused
+     */
+
+    Consumer(KafkaStream stream, Topic topic, ConsumerGate gate) {
+        this.gate = gate;
         this.stream = stream;
         this.topic = topic;
         this.parser = topic.getParser();
         this.source = topic.getSource();
+        this.schema = StreamSchema.of(topic.getName());
+        this.messages = Metrics.counter("source.kafka." + topic.getName() + ".messages");
     }
 
     /**
@@ -57,21 +81,24 @@ public class Consumer implements Runnable {
         log.debug("Starting consumer for topic {}", topic);
         ConsumerIterator<byte[], byte[]> it = stream.iterator();
 
-        // For each message present on the partition...
-        while (it.hasNext()) {
-            Map<String, Object> event = null;
-
-            // Parse it with the parser associated with the topic
-            try {
-                event = parser.parse(new String(it.next().message(), "UTF-8"));
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
+        try {
+            // For each message present on the partition...
+            while (it.hasNext()) {
+                // The message is only taken from the stream when the source isn't paused
+                gate.enter();
 
-            // Send it to the source
-            if (event != null) {
-                source.send(topic.getName(), event);
+                try {
+                    // Send it to the source, that will parse it with the parser associated with
+                    // the topic, reading the message bytes directly into the ring buffer
+                    byte[] message = it.next().message();
+                    source.send(schema, parser, message, 0, message.length);
+                    messages.inc();
+                } finally {
+                    gate.exit();
+                }
             }
+        } catch (InterruptedException e) {
+            log.debug("Consumer for topic {} interrupted", topic);
         }
 
         log.debug("Finished consumer for topic {}", topic);
@@ -0,0 +1,92 @@
+package net.redborder.cep.sources.kafka;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class lets a KafkaSource stop its consumer threads between messages.
+ * <p>Each consumer thread enters the gate before taking a message from its stream, and
+ * exits it once the message has been sent to the ring buffer. When the gate is closed,
+ * the threads wait at the entrance, and the gate waits for the threads that already
+ * entered, so the offsets consumed match the messages sent to the ring buffer.
+ *
+ * @see Consumer
+ * @see KafkaSource#pause()
+ */
+
+class ConsumerGate {
+    // The number of threads that are between enter and exit
+    private final AtomicInteger inside = new AtomicInteger();
+
+    // True while the threads must wait at the entrance
+    private volatile boolean closed;
+
+    // The lock where the threads wait while the gate is closed
+    private final Object lock = new Object();
+
+    /**
+     * Enters the gate, waiting while it is closed.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+
+    void enter() throws InterruptedException {
+        while (true) {
+            inside.incrementAndGet();
+            if (!closed) return;
+            inside.decrementAndGet();
+
+            synchronized (lock) {
+                while (closed) lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Exits the gate.
+     */
+
+    void exit() {
+        inside.decrementAndGet();
+    }
+
+    /**
+     * Closes the gate, and waits until every thread has exited it.
+     *
+     * @param timeoutMillis The maximum time to wait for the threads
+     * @return true if the gate is closed, false if the threads didn't exit in time and
+     *         the gate has been opened again
+     */
+
+    boolean close(long timeoutMillis) {
+        closed = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        try {
+            while (inside.get() > 0) {
+                if (System.currentTimeMillis() > deadline) {
+                    open();
+                    return false;
+                }
+
+                Thread.sleep(1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            open();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Opens the gate, releasing the threads that are waiting.
+     */
+
+    void open() {
+        synchronized (lock) {
+            closed = false;
+            lock.notifyAll();
+        }
+    }
+}
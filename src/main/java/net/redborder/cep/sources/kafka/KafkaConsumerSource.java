@@ -0,0 +1,527 @@
+package net.redborder.cep.sources.kafka;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.dsl.ProducerType;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.siddhi.StreamSchema;
+import net.redborder.cep.sources.Source;
+import net.redborder.cep.sources.parsers.Parser;
+import net.redborder.cep.sources.parsers.ParsersManager;
+import net.redborder.cep.util.ConfigData;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements a Source that receives events from a Kafka cluster
+ * using the Kafka consumer client, instead of the ZooKeeper based consumer
+ * used by {@link KafkaSource}.
+ * <p>A single thread polls batches of records from every topic, and each batch is
+ * published into the ring buffer in bulk. The partitions of the topics are assigned
+ * by the consumer group coordinator, so partitions added to a topic are picked up on
+ * the next metadata refresh without restarting the consumers.
+ * <p>By default, the source applies backpressure instead of blocking when the ring buffer
+ * fills up: it only publishes the records that fit, keeps the rest in a backlog, and pauses
+ * the fetching of every assigned partition while the ring buffer is above the high watermark.
+ * The poll thread keeps polling while it is paused, so the consumer stays in the group,
+ * and the partitions are resumed when the ring buffer drains below the low watermark.
+ * <p>When the siddhi plans are snapshotted, the poll thread stops sending records during
+ * each snapshot, but it keeps polling with the partitions paused so the consumer isn't evicted
+ * from the group. The offsets are only committed after each snapshot, so the records consumed after it are read again on restart. They are not
+ * committed when the partitions are revoked either, so the next owner of the partitions
+ * reads again the records consumed since the last snapshot, and they can be processed twice.
+ * <p>The following properties are read from the config file:
+ * <ul>
+ *     <li>bootstrap_servers: The list of Kafka brokers, "localhost:9092" by default</li>
+ *     <li>group_id: The consumer group, "rb-cep-engine" by default</li>
+ *     <li>auto_offset_reset: Where to start when there is no committed offset, "latest" by default</li>
+ *     <li>poll_timeout_ms: The maximum time that a poll waits for records, 100 by default</li>
+ *     <li>backpressure: "pause" to pause the partitions when the ring buffer fills up (the default),
+ *     or "block" to wait for free entries on the poll thread</li>
+ *     <li>high_watermark, low_watermark: The occupancy of the ring buffer that pauses and resumes
+ *     the partitions, 0.9 and 0.5 by default</li>
+ *     <li>fetch_min_bytes, fetch_max_wait_ms, max_partition_fetch_bytes, max_poll_records,
+ *     receive_buffer_bytes, metadata_max_age_ms: Passed to the consumer as the Kafka properties
+ *     with the same name, using dots instead of underscores</li>
+ * </ul>
+ */
+
+public class KafkaConsumerSource extends Source {
+    private static final Logger log = LogManager.getLogger(KafkaConsumerSource.class);
+
+    // The properties that are passed to the Kafka consumer as they are, if present
+    private static final String[] TUNING_PROPERTIES = {
+            "fetch_min_bytes", "fetch_max_wait_ms", "max_partition_fetch_bytes",
+            "max_poll_records", "receive_buffer_bytes", "metadata_max_age_ms"
+    };
+
+    // The Kafka consumer properties
+    private Properties props;
+
+    // The schema and the parser of each topic, by topic name
+    private Map<String, StreamSchema> schemas = new HashMap<>();
+    private Map<String, Parser> parsers = new HashMap<>();
+
+    // The number of messages consumed from each topic, by topic name
+    private Map<String, Counter> counters = new HashMap<>();
+
+    // The Kafka consumer. It is only used from the poll thread, except for wakeup.
+    private Consumer<byte[], byte[]> consumer;
+
+    // The thread that polls the records from Kafka
+    private Thread pollThread;
+
+    // The maximum time that a poll waits for records
+    private long pollTimeout;
+
+    // The maximum time that a poll waits for records while the partitions are paused,
+    // so the backlog is published as soon as there is room for it
+    private static final long PAUSED_POLL_TIMEOUT = 10;
+
+    // True if the source pauses the partitions when the ring buffer fills up,
+    // and the occupancies of the ring buffer that pause and resume them
+    private boolean pauseOnFull;
+    private double highWatermark, lowWatermark;
+
+    // The records polled that didn't fit on the ring buffer, in order
+    private final Deque<Batch> backlog = new ArrayDeque<>();
+
+    // True while the partitions are paused, and when they were paused
+    private boolean paused;
+    private long pausedSince;
+
+    // The maximum time to wait for the poll thread to stop
+    private static final long PAUSE_TIMEOUT_MS = 30000;
+
+    // The pause requested to the poll thread, or null if there is none
+    private volatile Hold hold;
+
+    // True while the poll thread is paused by a hold
+    private boolean holding;
+
+    // The number of times that the partitions were paused, and the time that they were paused
+    private final Counter pauses = Metrics.counter("source.kafka.pauses");
+    private final Counter pausedMillis = Metrics.counter("source.kafka.paused_ms");
+
+    // True if the offsets are only committed after the snapshots of the siddhi plans
+    private boolean commitOnSnapshot;
+
+    // False when the source must stop
+    private volatile boolean running;
+
+    // Do nothing, just call the parent constructor
+    public KafkaConsumerSource(ParsersManager parsersManager, EventHandler[] eventHandlers, Map<String, Object> properties) {
+        super(parsersManager, eventHandlers, properties);
+    }
+
+    /**
+     * The records are published by a single thread, so the ring buffer
+     * uses a single producer by default.
+     *
+     * @return SINGLE
+     */
+
+    @Override
+    protected ProducerType getDefaultProducerType() {
+        return ProducerType.SINGLE;
+    }
+
+    /**
+     * This method prepares the properties that will be used to consume messages from Kafka.
+     */
+
+    @Override
+    public void prepare() {
+        props = new Properties();
+        props.put("bootstrap.servers", getProperty("bootstrap_servers", "localhost:9092").toString());
+        props.put("group.id", getProperty("group_id", "rb-cep-engine").toString());
+        props.put("auto.offset.reset", getProperty("auto_offset_reset", "latest").toString());
+        commitOnSnapshot = ConfigData.getSnapshotDir() != null;
+        props.put("enable.auto.commit", String.valueOf(!commitOnSnapshot));
+        props.put("auto.commit.interval.ms", "60000");
+        props.put("key.deserializer", ByteArrayDeserializer.class.getName());
+        props.put("value.deserializer", ByteArrayDeserializer.class.getName());
+
+        for (String property : TUNING_PROPERTIES) {
+            Object value = getProperty(property);
+            if (value != null) props.put(property.replace('_', '.'), value.toString());
+        }
+
+        pollTimeout = Long.valueOf(getProperty("poll_timeout_ms", 100).toString());
+        pauseOnFull = !getProperty("backpressure", "pause").toString().equalsIgnoreCase("block");
+        highWatermark = Double.valueOf(getProperty("high_watermark", 0.9).toString());
+        lowWatermark = Double.valueOf(getProperty("low_watermark", 0.5).toString());
+    }
+
+    /**
+     * This method stores the schema and the parser of the given topics, that
+     * will be subscribed when the source starts.
+     *
+     * @param topicNames An array of Kafka topic names
+     */
+
+    @Override
+    public void addStreams(String... topicNames) {
+        for (String topicName : topicNames) {
+            schemas.put(topicName, StreamSchema.of(topicName));
+            parsers.put(topicName, parsersManager.getParserByStream(topicName));
+            counters.put(topicName, Metrics.counter("source.kafka." + topicName + ".messages"));
+        }
+    }
+
+    /**
+     * This method starts the thread that polls the records from Kafka. After it has
+     * been called, messages from the topics are being effectively read from Kafka.
+     */
+
+    @Override
+    public void start() {
+        log.info("Starting with topics {}", schemas.keySet());
+        running = true;
+        consumer = createConsumer(props);
+        pollThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, "kafka-consumer-source");
+        pollThread.start();
+    }
+
+    /**
+     * Creates the Kafka consumer that the poll thread uses.
+     *
+     * @param props The Kafka consumer properties
+     * @return The Kafka consumer
+     */
+
+    Consumer<byte[], byte[]> createConsumer(Properties props) {
+        return new KafkaConsumer<>(props);
+    }
+
+    /**
+     * Polls records from Kafka until the source is stopped, and sends
+     * the records of each partition to the ring buffer in bulk.
+     */
+
+    private void poll() {
+        List<byte[]> messages = new ArrayList<>();
+
+        try {
+            consumer.subscribe(new ArrayList<>(schemas.keySet()), new RebalanceListener());
+
+            while (running) {
+                Hold currentHold = hold;
+                if (currentHold != null) hold(currentHold);
+
+                if (pauseOnFull) applyBackpressure();
+
+                ConsumerRecords<byte[], byte[]> records = consumer.poll(paused ? PAUSED_POLL_TIMEOUT : pollTimeout);
+
+                for (TopicPartition partition : records.partitions()) {
+                    String topic = partition.topic();
+
+                    for (ConsumerRecord<byte[], byte[]> record : records.records(partition)) {
+                        messages.add(record.value());
+                    }
+
+                    counters.get(topic).add(messages.size());
+
+                    if (pauseOnFull) {
+                        trySendOrQueue(schemas.get(topic), parsers.get(topic), messages);
+                    } else {
+                        send(schemas.get(topic), parsers.get(topic), messages);
+                    }
+
+                    messages.clear();
+                }
+            }
+        } catch (WakeupException e) {
+            // The source is being stopped
+            if (running) throw e;
+        } finally {
+            // The offsets of the backlog are committed when the consumer is closed
+            flushBacklog();
+            consumer.close();
+        }
+    }
+
+    /**
+     * Stops sending records until the given pause ends. The backlog is sent before, so every
+     * record polled is on the ring buffer while the source is paused. Then, the offsets of
+     * the records sent are committed if it was requested.
+     * <p>The consumer only sends its heartbeats when it polls, so the poll thread keeps polling
+     * with every partition paused, and the consumer stays in the group however long the pause is.
+     *
+     * @param currentHold The pause requested
+     */
+
+    private void hold(Hold currentHold) {
+        flushBacklog();
+
+        // The offsets of the records sent before the pause, which are the ones included in the snapshot
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : consumer.assignment()) {
+            offsets.put(partition, new OffsetAndMetadata(consumer.position(partition)));
+        }
+
+        consumer.pause(consumer.assignment());
+        holding = true;
+        currentHold.paused.countDown();
+
+        try {
+            while (running && !currentHold.resumed.await(pollTimeout, TimeUnit.MILLISECONDS)) {
+                queue(consumer.poll(0));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            holding = false;
+            hold = null;
+        }
+
+        if (!paused) consumer.resume(consumer.assignment());
+
+        if (currentHold.commit) {
+            // The partitions revoked during the pause are committed by their new owner
+            offsets.keySet().retainAll(consumer.assignment());
+
+            try {
+                consumer.commitSync(offsets);
+            } catch (RuntimeException e) {
+                log.warn("Couldn't commit offsets after the snapshot", e);
+            }
+        }
+
+        if (!pauseOnFull) flushBacklog();
+    }
+
+    /**
+     * Stores the records polled on the backlog, without sending them. The partitions are paused
+     * while the source is held, so no records are expected, but they are kept in order if there are.
+     *
+     * @param records The records polled
+     */
+
+    private void queue(ConsumerRecords<byte[], byte[]> records) {
+        for (TopicPartition partition : records.partitions()) {
+            String topic = partition.topic();
+            List<byte[]> messages = new ArrayList<>();
+
+            for (ConsumerRecord<byte[], byte[]> record : records.records(partition)) {
+                messages.add(record.value());
+            }
+
+            counters.get(topic).add(messages.size());
+            backlog.add(new Batch(schemas.get(topic), parsers.get(topic), messages));
+        }
+    }
+
+    /**
+     * Stops the poll thread after it has sent every record polled to the ring buffer.
+     *
+     * @return true if the poll thread is stopped
+     */
+
+    @Override
+    public boolean pause() {
+        if (pollThread == null || !pollThread.isAlive()) return true;
+
+        Hold newHold = new Hold();
+        hold = newHold;
+
+        try {
+            if (newHold.paused.await(PAUSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The poll thread didn't stop in time, so cancel the pause
+        hold = null;
+        newHold.resumed.countDown();
+        return false;
+    }
+
+    /**
+     * Requests the poll thread to commit the offsets of the records polled when it is resumed.
+     */
+
+    @Override
+    public void commit() {
+        Hold currentHold = hold;
+        if (currentHold != null) currentHold.commit = true;
+    }
+
+    /**
+     * Lets the poll thread poll records again.
+     */
+
+    @Override
+    public void resume() {
+        Hold currentHold = hold;
+        if (currentHold != null) currentHold.resumed.countDown();
+    }
+
+    /**
+     * Sends the records of a partition that fit on the ring buffer, and stores the rest on the
+     * backlog. If the backlog is not empty, every record is stored, so the order is kept.
+     *
+     * @param schema The schema of the topic stream
+     * @param parser The parser of the topic
+     * @param messages The records of the partition
+     */
+
+    private void trySendOrQueue(StreamSchema schema, Parser parser, List<byte[]> messages) {
+        int sent = backlog.isEmpty() ? trySend(schema, parser, messages, 0) : 0;
+
+        if (sent < messages.size()) {
+            backlog.add(new Batch(schema, parser, new ArrayList<>(messages.subList(sent, messages.size()))));
+        }
+    }
+
+    /**
+     * Sends the backlog that fits on the ring buffer, and pauses or resumes the assigned
+     * partitions depending on the backlog and the occupancy of the ring buffer.
+     */
+
+    private void applyBackpressure() {
+        while (!backlog.isEmpty()) {
+            Batch batch = backlog.peek();
+            batch.sent += trySend(batch.schema, batch.parser, batch.messages, batch.sent);
+
+            if (batch.sent < batch.messages.size()) break;
+            backlog.poll();
+        }
+
+        double occupancy = eventProducer.getOccupancy();
+
+        if (!paused && (!backlog.isEmpty() || occupancy >= highWatermark)) {
+            consumer.pause(consumer.assignment());
+            paused = true;
+            pausedSince = System.currentTimeMillis();
+            pauses.inc();
+            log.debug("Paused the kafka partitions with a ring buffer occupancy of {}", occupancy);
+        } else if (paused && backlog.isEmpty() && occupancy <= lowWatermark) {
+            consumer.resume(consumer.assignment());
+            paused = false;
+            pausedMillis.add(System.currentTimeMillis() - pausedSince);
+            log.debug("Resumed the kafka partitions with a ring buffer occupancy of {}", occupancy);
+        }
+    }
+
+    /**
+     * Sends the whole backlog to the ring buffer, waiting for free entries if needed.
+     */
+
+    private void flushBacklog() {
+        Batch batch;
+
+        while ((batch = backlog.poll()) != null) {
+            List<byte[]> pending = batch.messages.subList(batch.sent, batch.messages.size());
+            send(batch.schema, batch.parser, pending);
+        }
+    }
+
+    /**
+     * Stops the poll thread and closes the Kafka consumer. After calling this
+     * method, no message will be sent by this source.
+     */
+
+    @Override
+    public void shutdown() {
+        running = false;
+
+        if (consumer != null) consumer.wakeup();
+
+        if (pollThread != null) {
+            try {
+                pollThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * This class logs the partitions assigned to this source, and commits the offsets
+     * of the records already sent to the ring buffer before the partitions are revoked,
+     * so the next owner of the partitions doesn't read them again. The backlog is sent
+     * before committing, as its offsets are committed too.
+     * <p>When the siddhi plans are snapshotted, the offsets are not committed, as the last
+     * snapshot doesn't include the records consumed after it. The next owner continues
+     * from the offsets committed after the last snapshot.
+     * <p>The new partitions are paused if the source is paused.
+     */
+
+    private class RebalanceListener implements ConsumerRebalanceListener {
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            log.info("Kafka partitions revoked: {}", partitions);
+
+            // The records can't be sent while the source is held, they are sent after it
+            if (holding) return;
+            flushBacklog();
+
+            if (commitOnSnapshot) return;
+
+            try {
+                consumer.commitSync();
+            } catch (RuntimeException e) {
+                log.warn("Couldn't commit offsets before the rebalance", e);
+            }
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            log.info("Kafka partitions assigned: {}", partitions);
+            if (paused || holding) consumer.pause(partitions);
+        }
+    }
+
+    /**
+     * A pause of the poll thread
+     */
+
+    private static class Hold {
+        // Released by the poll thread when it stops
+        private final CountDownLatch paused = new CountDownLatch(1);
+
+        // Released when the poll thread must continue
+        private final CountDownLatch resumed = new CountDownLatch(1);
+
+        // True if the offsets must be committed when the poll thread continues
+        private volatile boolean commit;
+    }
+
+    /**
+     * The records of a partition that didn't fit on the ring buffer
+     */
+
+    private static class Batch {
+        private final StreamSchema schema;
+        private final Parser parser;
+        private final List<byte[]> messages;
+
+        // The number of messages already sent to the ring buffer
+        private int sent;
+
+        private Batch(StreamSchema schema, Parser parser, List<byte[]> messages) {
+            this.schema = schema;
+            this.parser = parser;
+            this.messages = messages;
+        }
+    }
+}
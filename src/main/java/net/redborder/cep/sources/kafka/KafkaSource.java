@@ -6,6 +6,7 @@ import kafka.consumer.KafkaStream;
 import kafka.javaapi.consumer.ConsumerConnector;
 import net.redborder.cep.sources.Source;
 import net.redborder.cep.sources.parsers.ParsersManager;
+import net.redborder.cep.util.ConfigData;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.api.CuratorWatcher;
@@ -18,19 +19,26 @@ import org.apache.zookeeper.Watcher;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements a Source that receives events from a Kafka
  * cluster. It reads the list of brokers available from zookeeper using
  * the config file property zk_connect.
+ * <p>When the siddhi plans are snapshotted, the offsets are only committed after
+ * each snapshot, so the messages consumed after it are read again on restart.
+ * <p>This source uses the ZooKeeper based consumer, whose consumer group is rebalanced as a
+ * whole when a connector joins it. When a topic gets new partitions, the connector added
+ * for them makes every topic of the source stop consuming during that rebalance. Sources
+ * whose topics grow often should use {@link KafkaConsumerSource}, whose consumer gets the
+ * new partitions on its next metadata refresh, without creating new connectors.
  */
 
 public class KafkaSource extends Source {
     private static final Logger log = LogManager.getLogger(KafkaSource.class);
 
-    // The Kafka Consumer Object API
-    private ConsumerConnector consumer;
+    // The Kafka Consumer Object API connectors of each topic. Every topic starts with
+    // one connector, and a new one is added each time the topic gets new partitions.
+    private Map<String, List<ConsumerConnector>> connectors = new LinkedHashMap<>();
 
     // A map that stores one executor services for each topic that
     // will be read from kafka. Each executor service will execute
@@ -44,11 +52,17 @@ public class KafkaSource extends Source {
     private Properties props;
 
     // The Apache Curator instance, in order to connect with ZooKeeper
-    private CuratorFramework curator;
+    CuratorFramework curator;
+
+    // The gate that stops the consumer threads while the source is paused
+    private final ConsumerGate gate = new ConsumerGate();
+
+    // The maximum time to wait for the consumer threads to stop
+    private static final long PAUSE_TIMEOUT_MS = 30000;
 
     // Do nothing, just call the parent constructor
-    public KafkaSource(ParsersManager parsersManager, EventHandler eventHandler, Map<String, Object> properties) {
-        super(parsersManager, eventHandler, properties);
+    public KafkaSource(ParsersManager parsersManager, EventHandler[] eventHandlers, Map<String, Object> properties) {
+        super(parsersManager, eventHandlers, properties);
     }
 
     /**
@@ -64,7 +78,7 @@ public class KafkaSource extends Source {
         curator.start();
 
         props = new Properties();
-        props.put("auto.commit.enable", "true");
+        props.put("auto.commit.enable", String.valueOf(ConfigData.getSnapshotDir() == null));
         props.put("zookeeper.connect", zkConnect);
         props.put("group.id", "rb-cep-engine");
         props.put("zookeeper.session.timeout.ms", "6000");
@@ -129,36 +143,53 @@ public class KafkaSource extends Source {
      */
 
     private void initConsumers() {
-        // Create the Kafka consumers connectors and remove any executors that may be present
-        consumer = kafka.consumer.Consumer.createJavaConsumerConnector(new ConsumerConfig(props));
-        executors.clear();
-
-        Map<String, Integer> topicsHash = new HashMap<>();
         log.info("Starting with topics {}", topics);
 
         for (Topic topic : topics) {
-            topicsHash.putAll(topic.toMap());
+            startStreams(topic, topic.getPartitions());
         }
+    }
 
-        // Gets the list of KafkaStreams (partitions) associated with each topic
-        Map<String, List<KafkaStream<byte[], byte[]>>> consumerMap = consumer.createMessageStreams(topicsHash);
-
-        // For each topic...
-        for (Topic topic : topics) {
-            // Get the list of partitions
-            List<KafkaStream<byte[], byte[]>> streams = consumerMap.get(topic.getName());
+    /**
+     * This method creates a new consumer connector for a topic, and starts a thread
+     * for each one of the given number of streams on the executor service of the topic.
+     * <p>The connectors of every topic belong to the same consumer group, so when a connector
+     * is added the partitions of its topic are balanced between the streams of all the
+     * connectors. The threads that were already running keep their streams, but the whole
+     * group stops consuming while it is rebalanced.
+     *
+     * @param topic The topic that will be consumed
+     * @param streamsCount The number of streams (and threads) that will be created
+     */
 
-            // Create a new Executor Service
-            ExecutorService executor = Executors.newFixedThreadPool(topic.getPartitions());
+    synchronized void startStreams(Topic topic, int streamsCount) {
+        ConsumerConnector connector = kafka.consumer.Consumer.createJavaConsumerConnector(new ConsumerConfig(props));
 
-            // Send and start a thread for each partition and schedule it on the executor service
-            for (final KafkaStream stream : streams) {
-                executor.submit(new Consumer(stream, topic));
-            }
+        // Gets the list of KafkaStreams (partitions) associated with the topic
+        Map<String, List<KafkaStream<byte[], byte[]>>> consumerMap =
+                connector.createMessageStreams(Collections.singletonMap(topic.getName(), streamsCount));
+        List<KafkaStream<byte[], byte[]>> streams = consumerMap.get(topic.getName());
 
-            // Save the Executor Service for later use
+        // Get or create the Executor Service of the topic. It grows with the topic partitions.
+        ExecutorService executor = executors.get(topic.getName());
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool();
             executors.put(topic.getName(), executor);
         }
+
+        // Send and start a thread for each partition and schedule it on the executor service
+        for (final KafkaStream stream : streams) {
+            executor.submit(new Consumer(stream, topic, gate));
+        }
+
+        // Save the connector for later use
+        List<ConsumerConnector> topicConnectors = connectors.get(topic.getName());
+        if (topicConnectors == null) {
+            topicConnectors = new ArrayList<>();
+            connectors.put(topic.getName(), topicConnectors);
+        }
+
+        topicConnectors.add(connector);
     }
 
     /**
@@ -167,26 +198,65 @@ public class KafkaSource extends Source {
      * the consumers. After calling this method, no message will be sent by this source.
      */
 
-    public void shutdown() {
-        if (consumer != null) consumer.shutdown();
+    public synchronized void shutdown() {
+        for (List<ConsumerConnector> topicConnectors : connectors.values()) {
+            for (ConsumerConnector connector : topicConnectors) {
+                connector.shutdown();
+            }
+        }
+
         for (ExecutorService executor : executors.values()) {
             if (executor != null) executor.shutdown();
         }
         curator.close();
     }
 
+    /**
+     * Stops the consumer threads between messages.
+     *
+     * @return true if every consumer thread is stopped
+     */
+
+    @Override
+    public boolean pause() {
+        return gate.close(PAUSE_TIMEOUT_MS);
+    }
+
+    /**
+     * Commits the offsets of the messages sent to the ring buffer to ZooKeeper.
+     */
+
+    @Override
+    public synchronized void commit() {
+        for (List<ConsumerConnector> topicConnectors : connectors.values()) {
+            for (ConsumerConnector connector : topicConnectors) {
+                connector.commitOffsets();
+            }
+        }
+    }
+
+    /**
+     * Lets the consumer threads take messages again.
+     */
+
+    @Override
+    public void resume() {
+        gate.open();
+    }
+
     /**
      * This class guarantees that KafkaSource reads from all the partitions in case
      * the kafka partitions for that topic changes. It watches the zookeeper path that stores
-     * the partitions for a given topic. When the partitions list changes, Zookeeper calls
-     * the process function, that will create the consumer threads again.
+     * the partitions for a given topic. When new partitions are added, Zookeeper calls
+     * the process function, that will start consumer threads only for the new partitions.
+     * The threads of the existing partitions, and the ones of every other topic, keep running.
      */
 
-    private class PartitionsWatcher implements CuratorWatcher {
+    class PartitionsWatcher implements CuratorWatcher {
         // The partitions' topics that this watcher will watch
         private Topic topic;
 
-        public PartitionsWatcher(Topic topic) {
+        PartitionsWatcher(Topic topic) {
             this.topic = topic;
         }
 
@@ -194,30 +264,19 @@ public class KafkaSource extends Source {
         public void process(WatchedEvent watchedEvent) throws Exception {
             // If the children of the path changed...
             if (watchedEvent.getType().equals(Watcher.Event.EventType.NodeChildrenChanged)) {
-                // First, lets sleep for three seconds to guarantee that the process of partition
-                // balancing has finished completely.
-                log.info("Kafka partitions changed! Sleeping 3 secs to catch up with the partitions");
-                Thread.sleep(3000);
-
                 // Get the partitions from the path
                 List<String> partitions = curator.getChildren().forPath("/brokers/topics/" + topic.getName() + "/partitions");
                 Integer currentPartitions = partitions.size();
 
-                // If the partitions number have changed, stop and delete all the threads
-                // that were consuming that topic, and start all of them again.
-                if (!currentPartitions.equals(topic.getPartitions())) {
+                // If there are new partitions, start a new connector with one stream for each
+                // one of them. The consumer group will rebalance the topic partitions between
+                // the old and the new streams, stopping every connector of the group meanwhile.
+                if (currentPartitions > topic.getPartitions()) {
                     log.info("Topic {} partitions changed. Old partitions {}, new partitions {}", topic.getName(), topic.getPartitions(), currentPartitions);
-                    log.info("Shutting down consumers...");
-                    ExecutorService executorService = executors.get(topic.getName());
-                    executorService.shutdown();
-                    log.info("Awaiting consumers termination...");
-                    executorService.awaitTermination(5, TimeUnit.SECONDS);
-                    consumer.shutdown();
-                    log.info("Done!");
-
-                    // Set the new partitions and start the consumers again
+                    log.warn("The consumer group will be rebalanced, and it won't consume until the rebalance ends. " +
+                            "Use KafkaConsumerSource to add partitions without stopping the consumers");
+                    startStreams(topic, currentPartitions - topic.getPartitions());
                     topic.setPartitions(currentPartitions);
-                    initConsumers();
                 }
             }
 
@@ -1,27 +1,38 @@
 package net.redborder.cep.sources.parsers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.util.Map;
 
 /**
  * This class implements a JSON parser that uses the
- * Parser interface to parse strings messages formatted as
- * JSON text.
+ * Parser interface to parse strings or UTF-8 byte messages
+ * formatted as JSON text.
  */
 
 public class JsonParser implements Parser {
+    private static final Logger log = LogManager.getLogger(JsonParser.class);
+
     // The Jackson object that transforms a JSON string into a Java map
     private ObjectMapper mapper;
 
+    // The number of messages that couldn't be parsed
+    private final Counter failures = Metrics.counter("parser.json.failures");
+
     // Init a new JSON parser
     public JsonParser(){
         mapper = new ObjectMapper();
     }
 
     /**
-     * This method produces a map from a given JSON string
+     * This method produces a map from a given JSON string. Malformed messages are
+     * counted on the failures metric and only logged at debug level, as a stream
+     * of them must not flood the log.
      *
      * @param message The JSON string
      * @return A map with the values of the parsed JSON string given
@@ -35,7 +46,34 @@ public class JsonParser implements Parser {
         try {
             map = mapper.readValue(message, Map.class);
         } catch (IOException e) {
-            e.printStackTrace();
+            failures.inc();
+            log.debug("Couldn't parse the JSON message: {}", e.getMessage());
+        }
+
+        return map;
+    }
+
+    /**
+     * This method produces a map from a given range of bytes that contains
+     * UTF-8 encoded JSON. Jackson reads the bytes directly, so no intermediate
+     * string is created. Malformed messages are handled like in {@link #parse(String)}.
+     *
+     * @param buf The buffer that holds the JSON message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     * @return A map with the values of the parsed JSON message
+     */
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> parse(byte[] buf, int off, int len) {
+        Map<String, Object> map = null;
+
+        try {
+            map = mapper.readValue(buf, off, len, Map.class);
+        } catch (IOException e) {
+            failures.inc();
+            log.debug("Couldn't parse the JSON message: {}", e.getMessage());
         }
 
         return map;
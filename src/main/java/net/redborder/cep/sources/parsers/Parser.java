@@ -4,7 +4,7 @@ import java.util.Map;
 
 /**
  * This interface defines a parser that can be used by the
- * ParsersManager to parse messages from a string into a Java map.
+ * ParsersManager to parse messages from a string or a byte array into a Java map.
  *
  * @see ParsersManager
  */
@@ -20,4 +20,16 @@ public interface Parser {
      */
 
     Map<String, Object> parse(String message);
+
+    /**
+     * This method receives a message as a range of UTF-8 encoded bytes and
+     * produces a java map from it, without building an intermediate string.
+     *
+     * @param buf The buffer that holds the message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     * @return A map that is the result of parsing the given bytes
+     */
+
+    Map<String, Object> parse(byte[] buf, int off, int len);
 }
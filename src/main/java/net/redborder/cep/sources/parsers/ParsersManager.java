@@ -14,7 +14,8 @@ import java.util.Map;
  * This class manages and serves the different parsers available on the system.
  * <p>It has two main responsibilities: instanciate the different parsers specified on the config file,
  * and serve those parsers to the objects that should use them.
- * <p>To do so, it stores the parser instances along the parser names, as specified on the config file
+ * <p>To do so, it stores the parser instances along the parser names, as specified on the config file.
+ * Parsers that depend on the stream they parse, like SchemaJsonParser, are instanciated once for each stream.
  *
  * @see ConfigData
  */
@@ -25,6 +26,9 @@ public class ParsersManager {
     // Stores the parsers instances associated with each parser name
     Map<String, Parser> parsers = new HashMap<>();
 
+    // Stores the parsers classes associated with each parser name
+    Map<String, Class> parsersClasses = new HashMap<>();
+
     // Stores the parsers instances associated with each stream
     Map<String, Parser> streams = new HashMap<>();
 
@@ -37,13 +41,19 @@ public class ParsersManager {
         // For each parser specified on the config file...
         for (Map.Entry<String, String> parserEntry : ConfigData.getParsers().entrySet()) {
             try {
-                // Get the parser full qualified class name from config and instanciate the class
+                // Get the parser full qualified class name from config
                 Class parserClass = Class.forName(parserEntry.getValue());
-                Constructor<Parser> constructor = parserClass.getConstructor();
-                Parser parser = constructor.newInstance();
+                parsersClasses.put(parserEntry.getKey(), parserClass);
+
+                // Parsers built from a stream schema are instanciated later, once for
+                // each stream, so only the shared parsers are instanciated here
+                if (!isStreamParser(parserClass)) {
+                    Constructor<Parser> constructor = parserClass.getConstructor();
+                    Parser parser = constructor.newInstance();
 
-                // Save a reference to that parser
-                parsers.put(parserEntry.getKey(), parser);
+                    // Save a reference to that parser
+                    parsers.put(parserEntry.getKey(), parser);
+                }
             } catch (ClassNotFoundException e) {
                 log.error("Couldn't find the class associated with the parser " + parserEntry.getKey());
             } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException e) {
@@ -55,14 +65,42 @@ public class ParsersManager {
         // from the config file
         for (String streamName : ConfigData.getStreams()){
             String parseName = ConfigData.getParser(streamName);
+            Class parserClass = parsersClasses.get(parseName);
+
             try {
-                streams.put(streamName, getParserByName(parseName));
+                if (parserClass != null && isStreamParser(parserClass)) {
+                    // Create a new instance of the parser for this stream
+                    Constructor<Parser> constructor = parserClass.getConstructor(String.class);
+                    streams.put(streamName, constructor.newInstance(streamName));
+                } else {
+                    streams.put(streamName, getParserByName(parseName));
+                }
             } catch (ParserNotExistException e) {
                 e.printStackTrace();
+            } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException e) {
+                log.error("Couldn't create the instance of the parser " + parseName + " for the stream " + streamName, e);
             }
         }
     }
 
+    /**
+     * This method checks if the given parser class must be instanciated once for each stream.
+     * Those parsers have a public constructor that receives the stream name, like SchemaJsonParser.
+     *
+     * @param parserClass The parser class
+     * @return true if the parser class has a constructor that receives a stream name, false otherwise
+     * @see SchemaJsonParser
+     */
+
+    private boolean isStreamParser(Class parserClass) {
+        try {
+            parserClass.getConstructor(String.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     /**
      * This method returns the parser instance associated with the given parser name
      *
@@ -111,4 +149,21 @@ public class ParsersManager {
         Parser parser = getParserByStream(streamName);
         return parser.parse(msg);
     }
+
+    /**
+     * This method parses the given range of bytes with the parser associated
+     * with the given stream name
+     *
+     * @param streamName The stream name
+     * @param buf The buffer that holds the message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     * @return A map that results from parsing the given message with the
+     *         parser associated with the given stream name
+     */
+
+    public Map<String, Object> parse(String streamName, byte[] buf, int off, int len) {
+        Parser parser = getParserByStream(streamName);
+        return parser.parse(buf, off, len);
+    }
 }
@@ -0,0 +1,27 @@
+package net.redborder.cep.sources.parsers;
+
+/**
+ * This interface defines a parser that can write the attributes of a message
+ * directly into a positional row, without building a map first.
+ * <p>Rows are ordered as the schema of the stream the parser was built for, so a
+ * RowParser instance must only be used with the rows of that stream.
+ *
+ * @see net.redborder.cep.siddhi.StreamSchema
+ * @see net.redborder.cep.sources.disruptor.RowEvent
+ */
+
+public interface RowParser extends Parser {
+
+    /**
+     * This method parses a range of UTF-8 encoded bytes and writes the value
+     * of each stream attribute into its position on the given row.
+     *
+     * @param buf The buffer that holds the message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     * @param row The row that will receive the attribute values
+     * @return true if the message was parsed, false otherwise
+     */
+
+    boolean parse(byte[] buf, int off, int len, Object[] row);
+}
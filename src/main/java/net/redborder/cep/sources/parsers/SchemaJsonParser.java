@@ -0,0 +1,195 @@
+package net.redborder.cep.sources.parsers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.siddhi.StreamSchema;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * This class implements a JSON parser that only extracts the attributes
+ * declared for a stream on the config file.
+ * <p>Instead of materializing the whole JSON document, it streams over the JSON
+ * tokens and skips every field that is not an attribute of the stream, so nested
+ * objects and unused fields are never allocated. The values of the declared attributes
+ * are coerced to the type specified on the config file, and they can be written
+ * straight into the positional row of the stream.
+ * <p>As it depends on the stream attributes, the ParsersManager creates one instance
+ * of this parser for each stream that uses it.
+ *
+ * @see ParsersManager
+ * @see StreamSchema
+ */
+
+public class SchemaJsonParser implements RowParser {
+    private static final Logger log = LogManager.getLogger(SchemaJsonParser.class);
+
+    // The Jackson factory that creates the streaming parsers.
+    // It is taken from an object mapper so OBJECT attributes can be read as Java objects.
+    private final JsonFactory factory;
+
+    // The schema of the stream whose attributes will be extracted
+    private final StreamSchema schema;
+
+    // The number of messages that couldn't be parsed
+    private final Counter failures;
+
+    /**
+     * Creates a new parser for the attributes of the given stream.
+     *
+     * @param streamName The stream whose attributes will be extracted
+     */
+
+    public SchemaJsonParser(String streamName) {
+        this.factory = new ObjectMapper().getFactory();
+        this.schema = StreamSchema.of(streamName);
+
+        if (schema == null) {
+            throw new IllegalArgumentException("No stream definition found for stream " + streamName);
+        }
+
+        this.failures = Metrics.counter("parser.schema_json." + streamName + ".failures");
+    }
+
+    /**
+     * This method produces a map with the stream attributes present on the given JSON string
+     *
+     * @param message The JSON string
+     * @return A map with the stream attributes, or null if the message is not a valid JSON object
+     */
+
+    @Override
+    public Map<String, Object> parse(String message) {
+        Object[] row = new Object[schema.size()];
+
+        try {
+            parse(factory.createParser(message), row);
+            return schema.toMap(row);
+        } catch (IOException e) {
+            failures.inc();
+            log.warn("Couldn't parse message from stream {}: {}", schema.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * This method produces a map with the stream attributes present on the given
+     * range of UTF-8 encoded JSON bytes
+     *
+     * @param buf The buffer that holds the JSON message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     * @return A map with the stream attributes, or null if the message is not a valid JSON object
+     */
+
+    @Override
+    public Map<String, Object> parse(byte[] buf, int off, int len) {
+        Object[] row = new Object[schema.size()];
+        return parse(buf, off, len, row) ? schema.toMap(row) : null;
+    }
+
+    /**
+     * This method writes the stream attributes present on the given range of
+     * UTF-8 encoded JSON bytes into a row
+     *
+     * @param buf The buffer that holds the JSON message
+     * @param off The offset of the first byte of the message in the buffer
+     * @param len The length of the message in bytes
+     * @param row The row that will receive the attribute values
+     * @return true if the message was parsed, false if it is not a valid JSON object
+     */
+
+    @Override
+    public boolean parse(byte[] buf, int off, int len, Object[] row) {
+        try {
+            parse(factory.createParser(buf, off, len), row);
+            return true;
+        } catch (IOException e) {
+            failures.inc();
+            log.warn("Couldn't parse message from stream {}: {}", schema.getName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the top level fields of a JSON object, keeping only the stream attributes.
+     *
+     * @param parser The streaming parser positioned before the JSON object
+     * @param row The row that will receive the attribute values
+     * @throws IOException if the message is not a valid JSON object
+     */
+
+    private void parse(JsonParser parser, Object[] row) throws IOException {
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("expected a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int position = schema.indexOf(parser.getCurrentName());
+                JsonToken token = parser.nextToken();
+
+                if (position < 0) {
+                    // Not an attribute of the stream, skip it (and its children, if any)
+                    parser.skipChildren();
+                } else {
+                    row[position] = coerce(parser, token, schema.getAttributeType(position));
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the current value of the parser as the given attribute type.
+     *
+     * @param parser The streaming parser positioned at the value
+     * @param token The current token of the parser
+     * @param type The type of the attribute
+     * @return The value coerced to the attribute type, or null if it can't be coerced
+     * @throws IOException if the value couldn't be read
+     */
+
+    static Object coerce(JsonParser parser, JsonToken token, Attribute.Type type) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            if (type == Attribute.Type.OBJECT) {
+                return parser.readValueAs(Object.class);
+            } else {
+                parser.skipChildren();
+                return null;
+            }
+        }
+
+        try {
+            switch (type) {
+                case STRING:
+                    return parser.getText();
+                case INT:
+                    return token.isNumeric() ? parser.getIntValue() : Integer.valueOf(parser.getText().trim());
+                case LONG:
+                    return token.isNumeric() ? parser.getLongValue() : Long.valueOf(parser.getText().trim());
+                case FLOAT:
+                    return token.isNumeric() ? parser.getFloatValue() : Float.valueOf(parser.getText().trim());
+                case DOUBLE:
+                    return token.isNumeric() ? parser.getDoubleValue() : Double.valueOf(parser.getText().trim());
+                case BOOL:
+                    return token.isBoolean() ? parser.getBooleanValue() : Boolean.valueOf(parser.getText().trim());
+                default:
+                    return parser.readValueAs(Object.class);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
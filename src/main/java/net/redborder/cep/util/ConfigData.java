@@ -63,6 +63,30 @@ public class ConfigData {
         return configFile.getOrDefault("state_file", null);
     }
 
+    /**
+     * Checks if the changes to the state file are appended to a journal, specified on the config
+     * file under the key "state_journal". If it isn't specified, returns false, and the whole
+     * state file is written on every change.
+     *
+     * @return true if the changes to the state file are appended to a journal
+     */
+
+    public static Boolean getStateJournal() {
+        return configFile.getOrDefault("state_journal", false);
+    }
+
+    /**
+     * Gets the number of records of the state journal that trigger its compaction into the
+     * state file, specified on the config file under the key "state_journal_max_records".
+     * If it isn't specified, returns 1000.
+     *
+     * @return The maximum number of records of the state journal
+     */
+
+    public static Integer getStateJournalMaxRecords() {
+        return configFile.getOrDefault("state_journal_max_records", 1000);
+    }
+
     /**
      * Gets the URI specified on the config file under the key "rest_uri".
      * If it is not specified on the config file, returns "http://localhost:8888/myapp/"
@@ -86,6 +110,91 @@ public class ConfigData {
         return configFile.getOrDefault("ring_buffer_size", 1024);
     }
 
+    /**
+     * Gets the number of lanes that will execute the siddhi plans in parallel, specified
+     * on the config file under the key "siddhi_lanes". The siddhi plans are sharded across
+     * the lanes, and each lane runs on its own thread. If it isn't specified, returns 1.
+     *
+     * @return The number of lanes specified on the config file, or 1 if not specified
+     */
+
+    public static Integer getSiddhiLanes() {
+        return configFile.getOrDefault("siddhi_lanes", 1);
+    }
+
+    /**
+     * Gets the number of threads that compile the siddhi plans in parallel when they are restored
+     * or synchronized, specified on the config file under the key "siddhi_compile_threads".
+     * If it isn't specified, returns the number of available processors.
+     *
+     * @return The number of threads that compile the siddhi plans
+     */
+
+    public static Integer getSiddhiCompileThreads() {
+        return configFile.getOrDefault("siddhi_compile_threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gets the maximum number of events that are accumulated for each input stream of a
+     * siddhi plan before sending them to Siddhi, specified on the config file under the key
+     * "siddhi_batch_size". The events are also sent at the end of each ring buffer batch.
+     * If it isn't specified, returns 256.
+     *
+     * @return The batch size specified on the config file, or 256 if not specified
+     */
+
+    public static Integer getSiddhiBatchSize() {
+        return configFile.getOrDefault("siddhi_batch_size", 256);
+    }
+
+    /**
+     * Gets the default resource limits of the siddhi plans, specified on the config file
+     * under the key "plan_limits". Each rule can override them with its own limits.
+     * If it isn't specified, returns an empty map, so the plans have no limits.
+     *
+     * @return The limits specified on the config file
+     * @see net.redborder.cep.siddhi.SiddhiPlan#getStats()
+     */
+
+    public static Map<String, Object> getPlanLimits() {
+        return configFile.getOrDefault("plan_limits", Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Gets the directory where the state of the siddhi plans is snapshotted, specified on
+     * the config file under the key "snapshot_dir". If no directory has been set on the
+     * config, returns null, and the state of the plans is not snapshotted.
+     *
+     * @return Path to the snapshot directory, or null if not specified
+     */
+
+    public static String getSnapshotDir() {
+        return configFile.getOrDefault("snapshot_dir", null);
+    }
+
+    /**
+     * Gets the time between snapshots of the state of the siddhi plans, in seconds,
+     * specified on the config file under the key "snapshot_interval_s".
+     * If it isn't specified, returns 60.
+     *
+     * @return The time between snapshots
+     */
+
+    public static Integer getSnapshotInterval() {
+        return configFile.getOrDefault("snapshot_interval_s", 60);
+    }
+
+    /**
+     * Checks if the metrics must be registered on the platform MBean server, specified
+     * on the config file under the key "jmx_metrics". If it isn't specified, returns false.
+     *
+     * @return true if the metrics must be served by JMX
+     */
+
+    public static Boolean getJmxMetrics() {
+        return configFile.getOrDefault("jmx_metrics", false);
+    }
+
     /**
      * Gets the set of input streams specified on the config file
      *
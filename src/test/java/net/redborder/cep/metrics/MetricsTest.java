@@ -0,0 +1,72 @@
+package net.redborder.cep.metrics;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.management.AttributeNotFoundException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class MetricsTest extends TestCase {
+    @Test
+    public void sharesMetricsByName() {
+        Counter counter = Metrics.counter("test.shared.events");
+        counter.add(2);
+        Metrics.counter("test.shared.events").inc();
+
+        assertSame(counter, Metrics.counter("test.shared.events"));
+        assertEquals(3L, Metrics.snapshot().get("test.shared.events"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMetricsOfAnotherType() {
+        Metrics.counter("test.typed.metric");
+        Metrics.timer("test.typed.metric");
+    }
+
+    @Test
+    public void removesExactNames() {
+        Metrics.counter("test.plan.foo.events").inc();
+        Metrics.counter("test.plan.foo.bar.events").inc();
+        Metrics.counter("test.plan.foobar.events").inc();
+
+        Metrics.remove(Collections.singletonList("test.plan.foo.events"));
+        Map<String, Object> snapshot = Metrics.snapshot();
+
+        assertFalse(snapshot.containsKey("test.plan.foo.events"));
+        assertTrue(snapshot.containsKey("test.plan.foo.bar.events"));
+        assertTrue(snapshot.containsKey("test.plan.foobar.events"));
+
+        Metrics.remove(Arrays.asList("test.plan.foo.bar.events", "test.plan.foobar.events"));
+    }
+
+    @Test
+    public void exposesMetricsOnMBean() throws Exception {
+        Metrics.gauge("test.mbean.pending", new Gauge() {
+            @Override
+            public long value() {
+                return 7;
+            }
+        });
+
+        Timer timer = Metrics.timer("test.mbean.send_time");
+        timer.record(TimeUnit.MICROSECONDS.toNanos(100));
+
+        MetricsMBean mbean = new MetricsMBean();
+        assertEquals(7L, mbean.getAttribute("test.mbean.pending"));
+        assertEquals(1L, mbean.getAttribute("test.mbean.send_time.count"));
+        assertEquals(2, mbean.getAttributes(new String[]{ "test.mbean.pending", "test.mbean.send_time.count" }).size());
+
+        try {
+            mbean.getAttribute("test.mbean.unknown");
+            fail("The attribute doesn't exist");
+        } catch (AttributeNotFoundException e) {
+            // Expected
+        }
+    }
+}
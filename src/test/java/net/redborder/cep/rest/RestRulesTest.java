@@ -1,6 +1,7 @@
 package net.redborder.cep.rest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import net.redborder.cep.metrics.Metrics;
 import net.redborder.cep.siddhi.SiddhiHandler;
 import net.redborder.cep.util.ConfigData;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -282,4 +283,17 @@ public class RestRulesTest extends JerseyTest {
 
         assertEquals(Response.Status.OK.getStatusCode(), statusCode);
     }
+
+    @Test
+    public void metrics() throws Exception {
+        Metrics.counter("test.rest.events").add(3);
+
+        Response response = target("/v1/metrics").request(MediaType.APPLICATION_JSON_TYPE).get();
+        int statusCode = response.getStatus();
+
+        assertEquals(Response.Status.OK.getStatusCode(), statusCode);
+
+        Map<String, Object> metrics = objectMapper.readValue(response.readEntity(String.class), Map.class);
+        assertEquals(3, metrics.get("test.rest.events"));
+    }
 }
@@ -0,0 +1,175 @@
+package net.redborder.cep.siddhi;
+
+import junit.framework.TestCase;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.siddhi.exceptions.TransformException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class PlanUsageTest extends TestCase {
+    private static final long CPU_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void degradesAndRecovers() throws Exception {
+        TestClock clock = new TestClock();
+        PlanUsage usage = new PlanUsage("test", limits("degrade"), new Counter(), clock);
+
+        // The window isn't over yet
+        usage.record(50 * CPU_MS, 10);
+        assertEquals(PlanUsage.State.OK, usage.getState());
+
+        clock.advance(1);
+        usage.record(0, 0);
+        assertEquals(PlanUsage.State.DEGRADED, usage.getState());
+        assertTrue(usage.accept());
+
+        // The plan stops receiving events, and it is checked by the timer
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.OK, usage.getState());
+    }
+
+    @Test
+    public void samplesAndRecovers() throws Exception {
+        TestClock clock = new TestClock();
+        PlanUsage usage = new PlanUsage("test", limits("sample"), new Counter(), clock);
+
+        usage.record(50 * CPU_MS, 10);
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.SAMPLED, usage.getState());
+
+        int accepted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (usage.accept()) accepted++;
+        }
+
+        assertEquals(5, accepted);
+        assertEquals(15L, usage.toMap().get("dropped"));
+
+        // It would use 4 x 5 cpu ms/s without sampling, over the limit of 10
+        usage.record(5 * CPU_MS, 5);
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.SAMPLED, usage.getState());
+
+        // It would use 4 x 2 cpu ms/s without sampling
+        usage.record(2 * CPU_MS, 5);
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.OK, usage.getState());
+        assertTrue(usage.accept());
+    }
+
+    @Test
+    public void suspendsAndResumes() throws Exception {
+        TestClock clock = new TestClock();
+        Counter outputs = new Counter();
+        PlanUsage usage = new PlanUsage("test", limits("suspend"), outputs, clock);
+
+        usage.record(50 * CPU_MS, 10);
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.SUSPENDED, usage.getState());
+        assertFalse(usage.accept());
+
+        // The timers of the plan keep producing too many outputs
+        outputs.add(200);
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.SUSPENDED, usage.getState());
+
+        // The plan is resumed after 3 seconds under its limits
+        for (int i = 0; i < 2; i++) {
+            clock.advance(1);
+            usage.check();
+            assertEquals(PlanUsage.State.SUSPENDED, usage.getState());
+        }
+
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.OK, usage.getState());
+        assertTrue(usage.accept());
+    }
+
+    @Test
+    public void staysSuspendedWithoutResume() throws Exception {
+        TestClock clock = new TestClock();
+        Map<String, Object> limits = new HashMap<>();
+        limits.put("max_cpu_ms", 10);
+        limits.put("action", "suspend");
+        limits.put("resume_after_s", 0);
+        PlanUsage usage = new PlanUsage("test", PlanUsage.Limits.of(limits), new Counter(), clock);
+
+        usage.record(50 * CPU_MS, 10);
+        clock.advance(1);
+        usage.check();
+
+        clock.advance(3600);
+        usage.check();
+        assertEquals(PlanUsage.State.SUSPENDED, usage.getState());
+    }
+
+    @Test
+    public void limitsOutputsOfTimers() throws Exception {
+        TestClock clock = new TestClock();
+        Counter outputs = new Counter();
+        PlanUsage usage = new PlanUsage("test", limits("degrade"), outputs, clock);
+
+        // The plan has no input events, but its timers produce outputs
+        outputs.add(150);
+        clock.advance(1);
+        usage.check();
+        assertEquals(PlanUsage.State.DEGRADED, usage.getState());
+        assertEquals(150.0, usage.toMap().get("outputs_per_s"));
+    }
+
+    @Test
+    public void rejectsInvalidLimits() {
+        try {
+            PlanUsage.Limits.of(Collections.<String, Object>singletonMap("action", "stop"));
+            fail("The exception wasn't thrown");
+        } catch (TransformException e) {
+            assertEquals("invalid limits action stop", e.getMessage());
+        }
+
+        try {
+            PlanUsage.Limits.of(Collections.<String, Object>singletonMap("resume_after_s", -1));
+            fail("The exception wasn't thrown");
+        } catch (TransformException e) {
+            assertEquals("resume_after_s can't be negative", e.getMessage());
+        }
+    }
+
+    private PlanUsage.Limits limits(String action) throws TransformException {
+        Map<String, Object> limits = new HashMap<>();
+        limits.put("max_cpu_ms", 10);
+        limits.put("max_output_rate", 100);
+        limits.put("action", action);
+        limits.put("sample_rate", 4);
+        limits.put("resume_after_s", 3);
+        return PlanUsage.Limits.of(limits);
+    }
+
+    /**
+     * A clock that only moves when the test advances it
+     */
+
+    private static class TestClock implements PlanUsage.Clock {
+        private long nanos;
+
+        private void advance(long seconds) {
+            nanos += TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package net.redborder.cep.siddhi;
 
 import junit.framework.TestCase;
-import net.redborder.cep.sources.disruptor.MapEvent;
+import net.redborder.cep.sources.disruptor.RowEvent;
 import net.redborder.cep.rest.exceptions.RestException;
 import net.redborder.cep.rest.exceptions.RestNotFoundException;
 import net.redborder.cep.siddhi.exceptions.ExecutionPlanException;
+import net.redborder.cep.sinks.SinksManager;
 import net.redborder.cep.util.ConfigData;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.wso2.siddhi.core.ExecutionPlanRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
 
 import java.net.URL;
 import java.util.*;
@@ -327,6 +332,70 @@ public class SiddhiHandlerTest extends TestCase {
         siddhiHandler.synchronize(executionPlans);
     }
 
+    @Test
+    public void synchronizeInvalidKeepsRunningPlans() throws Exception {
+        // A manager that keeps the runtimes that it creates
+        final List<ExecutionPlanRuntime> runtimes = Collections.synchronizedList(new ArrayList<ExecutionPlanRuntime>());
+        SiddhiManager siddhiManager = spy(new SiddhiManager());
+        doAnswer(new Answer<ExecutionPlanRuntime>() {
+            @Override
+            public ExecutionPlanRuntime answer(InvocationOnMock invocation) throws Throwable {
+                ExecutionPlanRuntime runtime = spy((ExecutionPlanRuntime) invocation.callRealMethod());
+                runtimes.add(runtime);
+                return runtime;
+            }
+        }).when(siddhiManager).createExecutionPlanRuntime(anyString());
+
+        SiddhiHandler siddhiHandler = new SiddhiHandler(SinksManager.withConsoleSink(), siddhiManager);
+        siddhiHandler.synchronize(Collections.singletonList(plan("runningID", 0, "from test select a insert into testOutput")));
+        SiddhiPlan running = siddhiHandler.getSiddhiPlans().get("runningID");
+        ExecutionPlanRuntime runningRuntime = runtimes.remove(0);
+
+        // A newer version of the running plan and a new plan are compiled, but another plan is invalid
+        List<Map<String, Object>> executionPlans = new ArrayList<>();
+        executionPlans.add(plan("runningID", 1, "from test select d insert into testOutput"));
+        executionPlans.add(plan("newID", 0, "from test select e insert into testOutput"));
+        executionPlans.add(plan("invalidID", 0, "from test select **ERROR** insert into testOutput"));
+
+        try {
+            siddhiHandler.synchronize(executionPlans);
+            fail("The exception wasn't thrown");
+        } catch (RestException e) {
+            assertTrue(e.getMessage().contains("invalidID"));
+        }
+
+        // Nothing is registered, and the runtimes compiled are shut down
+        assertEquals(Collections.singleton("runningID"), siddhiHandler.getSiddhiPlans().keySet());
+        assertSame(running, siddhiHandler.getSiddhiPlans().get("runningID"));
+        assertEquals(2, runtimes.size());
+
+        for (ExecutionPlanRuntime runtime : runtimes) {
+            verify(runtime).shutdown();
+        }
+
+        // The previous plan keeps running
+        verify(runningRuntime, never()).shutdown();
+
+        RowEvent rowEvent = new RowEvent();
+        StreamSchema schema = StreamSchema.of("test");
+        rowEvent.reset(schema)[0] = "testa";
+        rowEvent.setValid(true);
+        siddhiHandler.onEvent(rowEvent, 0, true);
+
+        assertEquals(1L, running.getStats().get("events"));
+        siddhiHandler.stop();
+    }
+
+    private Map<String, Object> plan(String id, int version, String executionPlan) {
+        Map<String, Object> executionPlanMap = new HashMap<>();
+        executionPlanMap.put("id", id);
+        executionPlanMap.put("version", version);
+        executionPlanMap.put("input", Collections.singletonList("test"));
+        executionPlanMap.put("output", Collections.singletonMap("testOutput", "outputTopic"));
+        executionPlanMap.put("executionPlan", executionPlan);
+        return executionPlanMap;
+    }
+
     @Test
     public void list() throws RestException {
         SiddhiHandler siddhiHandler = new SiddhiHandler();
@@ -361,9 +430,15 @@ public class SiddhiHandlerTest extends TestCase {
         // Add both to siddhiHandler
         siddhiHandler.synchronize(executionPlans);
 
+        // Every plan is listed with its stats
+        List<Map<String, Object>> listed = siddhiHandler.list();
+        for (Map<String, Object> siddhiPlanMap : listed) {
+            assertTrue(siddhiPlanMap.remove("stats") instanceof Map);
+        }
+
         // Check that both lists are equal
-        assertTrue(executionPlans.containsAll(siddhiHandler.list()));
-        assertTrue(siddhiHandler.list().containsAll(executionPlans));
+        assertTrue(executionPlans.containsAll(listed));
+        assertTrue(listed.containsAll(executionPlans));
     }
 
     @Test
@@ -393,6 +468,7 @@ public class SiddhiHandlerTest extends TestCase {
         SiddhiPlan siddhiPlanMock = mock(SiddhiPlan.class);
         when(siddhiPlanMock.getId()).thenReturn("testMockID");
         when(siddhiPlanMock.getInput()).thenReturn(Collections.singletonList("test"));
+        when(siddhiPlanMock.enqueue(anyInt(), anyLong(), any(Object[].class))).thenReturn(true);
 
         // Create the handler and add the execution plan mock
         SiddhiHandler siddhiHandler = new SiddhiHandler();
@@ -405,14 +481,17 @@ public class SiddhiHandlerTest extends TestCase {
         dataMap.put("c", "testc");
         dataMap.put("d", 128);
         dataMap.put("e", 10);
-        MapEvent mapEventStub = new MapEvent();
-        mapEventStub.setData(dataMap);
-        mapEventStub.setSource("test");
+        StreamSchema schema = StreamSchema.of("test");
+        RowEvent rowEventStub = new RowEvent();
+        Object[] row = rowEventStub.reset(schema);
+        schema.project(dataMap, row);
+        rowEventStub.setValid(true);
 
         // Send the event
-        siddhiHandler.onEvent(mapEventStub, 1, true);
+        siddhiHandler.onEvent(rowEventStub, 1, true);
 
-        // Checks if send was called
-        verify(siddhiPlanMock).send("test", dataMap);
+        // Checks if the event was enqueued and flushed at the end of the batch
+        verify(siddhiPlanMock).enqueue(eq(schema.getId()), anyLong(), eq(row));
+        verify(siddhiPlanMock).flush();
     }
 }
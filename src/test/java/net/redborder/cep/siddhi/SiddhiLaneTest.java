@@ -0,0 +1,160 @@
+package net.redborder.cep.siddhi;
+
+import com.lmax.disruptor.EventHandler;
+import junit.framework.TestCase;
+import net.redborder.cep.sources.Source;
+import net.redborder.cep.sources.disruptor.RowEvent;
+import net.redborder.cep.sources.parsers.ParsersManager;
+import net.redborder.cep.util.ConfigData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class SiddhiLaneTest extends TestCase {
+    @BeforeClass
+    public static void init() {
+        URL testConfigPath = SiddhiLaneTest.class.getClassLoader().getResource("config.yml");
+        ConfigData.setConfigFile(testConfigPath.getFile());
+    }
+
+    @Test
+    public void sourcesTakeTurnsOnTheLane() throws Exception {
+        final int messages = 5000;
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger enqueued = new AtomicInteger();
+
+        // A plan that detects if it is executed by two threads at once
+        SiddhiPlan siddhiPlan = mock(SiddhiPlan.class);
+        when(siddhiPlan.enqueue(anyInt(), anyLong(), any(Object[].class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                if (inside.incrementAndGet() > 1) overlaps.incrementAndGet();
+                Thread.yield();
+                inside.decrementAndGet();
+                return enqueued.incrementAndGet() % 16 == 1;
+            }
+        });
+
+        SiddhiLane lane = new SiddhiLane(0);
+        StreamSchema schema = StreamSchema.of("test");
+        StreamRoute[] routes = new StreamRoute[StreamSchema.count()];
+        Arrays.fill(routes, StreamRoute.EMPTY);
+        routes[schema.getId()] = new StreamRoute(Collections.singletonList(siddhiPlan),
+                Collections.<InputFilter, List<SiddhiPlan>>emptyMap());
+        lane.setRoutes(routes);
+
+        // Two sources, each one with its own ring buffer, feed the same lane
+        final TestSource first = new TestSource(lane);
+        final TestSource second = new TestSource(lane);
+        Thread[] producers = new Thread[2];
+
+        for (int i = 0; i < producers.length; i++) {
+            final TestSource source = i == 0 ? first : second;
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < messages; j++) {
+                        source.send("test", Collections.<String, Object>singletonMap("a", "value" + j));
+                    }
+                }
+            });
+            producers[i].setDaemon(true);
+            producers[i].start();
+        }
+
+        // A lane that fails stops consuming, and the producers would wait forever
+        for (Thread producer : producers) {
+            producer.join(10000);
+            assertFalse(producer.isAlive());
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((!first.eventProducer.isDrained() || !second.eventProducer.isDrained()) &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(2 * messages, enqueued.get());
+        assertEquals(0, overlaps.get());
+
+        // The lane is released at the end of every batch
+        lane.lockBatches();
+        lane.unlockBatches();
+    }
+
+    @Test
+    public void failedBatchReleasesTheLane() throws Exception {
+        SiddhiPlan siddhiPlan = mock(SiddhiPlan.class);
+        when(siddhiPlan.enqueue(anyInt(), anyLong(), any(Object[].class))).thenThrow(new IllegalStateException("failed"));
+
+        SiddhiLane lane = new SiddhiLane(0);
+        StreamSchema schema = StreamSchema.of("test");
+        StreamRoute[] routes = new StreamRoute[StreamSchema.count()];
+        Arrays.fill(routes, StreamRoute.EMPTY);
+        routes[schema.getId()] = new StreamRoute(Collections.singletonList(siddhiPlan),
+                Collections.<InputFilter, List<SiddhiPlan>>emptyMap());
+        lane.setRoutes(routes);
+
+        RowEvent rowEvent = new RowEvent();
+        rowEvent.reset(schema);
+        rowEvent.setValid(true);
+
+        // The event is not the last one of the batch, but the batch fails
+        try {
+            lane.onEvent(rowEvent, 0, false);
+            fail("The exception wasn't thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+
+        // The lane can be locked by another thread
+        final SiddhiLane failedLane = lane;
+        final AtomicInteger locked = new AtomicInteger();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                failedLane.lockBatches();
+                locked.incrementAndGet();
+                failedLane.unlockBatches();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        thread.join(10000);
+        assertEquals(1, locked.get());
+    }
+
+    private static class TestSource extends Source {
+        private TestSource(EventHandler eventHandler) {
+            super(mock(ParsersManager.class), new EventHandler[]{eventHandler},
+                    Collections.<String, Object>singletonMap("ring_buffer_size", 64));
+        }
+
+        @Override
+        public void addStreams(String... streamName) {
+        }
+
+        @Override
+        public void prepare() {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package net.redborder.cep.siddhi;
 
 import junit.framework.TestCase;
+import net.redborder.cep.metrics.Counter;
+import net.redborder.cep.metrics.Metrics;
 import net.redborder.cep.siddhi.exceptions.ExecutionPlanException;
 import net.redborder.cep.siddhi.exceptions.TransformException;
 import net.redborder.cep.util.ConfigData;
@@ -8,6 +10,10 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+import org.wso2.siddhi.query.api.definition.Attribute;
 
 import java.net.URL;
 import java.util.*;
@@ -61,6 +67,197 @@ public class SiddhiPlanTest extends TestCase {
         assertEquals(executionPlanMap, siddhiPlan.toMap());
     }
 
+    @Test
+    public void compatibility() throws ExecutionPlanException {
+        Map<String, String> outputTopics = Collections.singletonMap("testOutput", "outputTopic");
+        Map<String, String> emptyFilters = Collections.emptyMap();
+        List<String> inputTopics = Collections.singletonList("test");
+
+        SiddhiPlan present = new SiddhiPlan("testID", 0, inputTopics, outputTopics, emptyFilters,
+                "from test#window.time(1 hour) [d > 10 and a == 'x'] select a, count(d) as c insert into testOutput");
+
+        // Only the thresholds change
+        SiddhiPlan thresholds = new SiddhiPlan("testID", 1, inputTopics, outputTopics, emptyFilters,
+                "from test#window.time(1 hour)  [d > 25 and a == 'y'] select a, count(d) as c insert into testOutput");
+
+        // The window changes
+        SiddhiPlan window = new SiddhiPlan("testID", 1, inputTopics, outputTopics, emptyFilters,
+                "from test#window.time(2 hour) [d > 10 and a == 'x'] select a, count(d) as c insert into testOutput");
+
+        // The query changes
+        SiddhiPlan query = new SiddhiPlan("testID", 1, inputTopics, outputTopics, emptyFilters,
+                "from test#window.time(1 hour) [d > 10] select a, sum(d) as c insert into testOutput");
+
+        // The filters change
+        SiddhiPlan filters = new SiddhiPlan("testID", 1, inputTopics, outputTopics, Collections.singletonMap("a", "x"),
+                "from test#window.time(1 hour) [d > 10 and a == 'x'] select a, count(d) as c insert into testOutput");
+
+        // The output topic changes
+        SiddhiPlan output = new SiddhiPlan("testID", 1, inputTopics, Collections.singletonMap("testOutput", "otherTopic"),
+                emptyFilters, "from test#window.time(1 hour) [d > 10 and a == 'x'] select a, count(d) as c insert into testOutput");
+
+        assertTrue(thresholds.isCompatibleWith(present));
+        assertFalse(window.isCompatibleWith(present));
+        assertFalse(query.isCompatibleWith(present));
+        assertFalse(filters.isCompatibleWith(present));
+        assertFalse(output.isCompatibleWith(present));
+    }
+
+    @Test
+    public void handsOverState() throws ExecutionPlanException {
+        Map<String, String> outputTopics = Collections.singletonMap("testOutput", "outputTopic");
+        Map<String, String> emptyFilters = Collections.emptyMap();
+        List<String> inputTopics = Collections.singletonList("test");
+        int streamId = StreamSchema.of("test").getId();
+        SiddhiManager siddhiManager = new SiddhiManager();
+
+        OutputCallback presentOutputs = new OutputCallback();
+        SiddhiPlan present = new SiddhiPlan("testID", 0, inputTopics, outputTopics, emptyFilters,
+                "from test#window.length(10) [d > 0] select count(d) as c insert into testOutput");
+        present.start(siddhiManager, presentOutputs);
+
+        for (int i = 0; i < 3; i++) {
+            present.send(streamId, new Object[]{ "a", "b", "c", 5, 5 });
+        }
+
+        assertEquals(3L, presentOutputs.last()[0]);
+
+        // The new version only changes the threshold, so it continues with the window of the previous one
+        OutputCallback newerOutputs = new OutputCallback();
+        SiddhiPlan newer = new SiddhiPlan("testID", 1, inputTopics, outputTopics, emptyFilters,
+                "from test#window.length(10) [d > 1] select count(d) as c insert into testOutput");
+        newer.start(siddhiManager, newerOutputs);
+
+        assertTrue(newer.isCompatibleWith(present));
+        newer.restore(present.snapshot());
+        present.stop();
+
+        newer.send(streamId, new Object[]{ "a", "b", "c", 5, 5 });
+        assertEquals(4L, newerOutputs.last()[0]);
+        newer.stop();
+    }
+
+    @Test
+    public void restoresSnapshot() throws ExecutionPlanException {
+        Map<String, String> outputTopics = Collections.singletonMap("testOutput", "outputTopic");
+        Map<String, String> emptyFilters = Collections.emptyMap();
+        List<String> inputTopics = Collections.singletonList("test");
+        String plan = "from test#window.length(10) select count(d) as c insert into testOutput";
+        int streamId = StreamSchema.of("test").getId();
+        SiddhiManager siddhiManager = new SiddhiManager();
+
+        // Fill the window of a plan
+        OutputCallback previousOutputs = new OutputCallback();
+        SiddhiPlan previous = new SiddhiPlan("testID", 0, inputTopics, outputTopics, emptyFilters, plan);
+        previous.start(siddhiManager, previousOutputs);
+
+        for (int i = 0; i < 3; i++) {
+            previous.send(streamId, new Object[]{ "a", "b", "c", i, i });
+        }
+
+        assertEquals(3L, previousOutputs.last()[0]);
+        byte[] snapshot = previous.snapshot();
+        previous.stop();
+
+        // A new runtime of the same plan continues the count
+        OutputCallback outputs = new OutputCallback();
+        SiddhiPlan restored = new SiddhiPlan("testID", 0, inputTopics, outputTopics, emptyFilters, plan);
+        restored.start(siddhiManager, outputs);
+        restored.restore(snapshot);
+        restored.send(streamId, new Object[]{ "a", "b", "c", 3, 3 });
+
+        assertEquals(4L, outputs.last()[0]);
+        restored.stop();
+    }
+
+    @Test
+    public void sendAppliesFilters() throws ExecutionPlanException {
+        Map<String, String> outputTopics = Collections.singletonMap("testOutput", "outputTopic");
+        int streamId = StreamSchema.of("test").getId();
+
+        OutputCallback outputs = new OutputCallback();
+        SiddhiPlan siddhiPlan = new SiddhiPlan("filteredID", 0, Collections.singletonList("test"), outputTopics,
+                Collections.singletonMap("a", "x"), "from test select a insert into testOutput");
+        siddhiPlan.start(new SiddhiManager(), outputs);
+
+        siddhiPlan.send(streamId, new Object[]{ "y", "b", "c", 1, 1 });
+        siddhiPlan.send("test", new Object[]{ "y", "b", "c", 2, 2 });
+        assertNull(outputs.last());
+
+        siddhiPlan.send(streamId, new Object[]{ "x", "b", "c", 3, 3 });
+        assertEquals(1, outputs.outputs.size());
+        siddhiPlan.stop();
+    }
+
+    @Test
+    public void accountsFullBatches() throws Exception {
+        Map<String, String> outputTopics = Collections.singletonMap("testOutput", "outputTopic");
+        Map<String, Object> limits = new HashMap<>();
+        limits.put("max_cpu_ms", 0.001);
+        limits.put("action", "suspend");
+        int streamId = StreamSchema.of("test").getId();
+        int batchSize = ConfigData.getSiddhiBatchSize();
+
+        SiddhiPlan siddhiPlan = new SiddhiPlan("batchedID", 0, Collections.singletonList("test"), outputTopics,
+                Collections.<String, List<String>>emptyMap(), Collections.<String, String>emptyMap(), limits,
+                "from test select a insert into testOutput");
+        siddhiPlan.start(new SiddhiManager(), new OutputCallback());
+
+        // The full batches are sent without waiting for a flush, and they are accounted too
+        for (int i = 0; i < 3 * batchSize; i++) {
+            siddhiPlan.enqueue(streamId, i, new Object[]{ "a", "b", "c", i, i });
+        }
+
+        assertEquals(3L * batchSize, Metrics.counter("plan.batchedID.events").get());
+        assertEquals(3L, Metrics.timer("plan.batchedID.send_time").getCount());
+        assertEquals("ok", siddhiPlan.getStats().get("state"));
+
+        // The next full batch closes the window, and the plan is over its CPU limit
+        Thread.sleep(1100);
+        for (int i = 0; i < batchSize; i++) {
+            siddhiPlan.enqueue(streamId, i, new Object[]{ "a", "b", "c", i, i });
+        }
+
+        assertEquals("suspended", siddhiPlan.getStats().get("state"));
+        assertFalse(siddhiPlan.enqueue(streamId, 0, new Object[]{ "a", "b", "c", 0, 0 }));
+        assertEquals(1L, siddhiPlan.getStats().get("dropped"));
+        assertEquals(4L * batchSize, siddhiPlan.getStats().get("events"));
+        siddhiPlan.stop();
+    }
+
+    @Test
+    public void sinksRoundTrip() throws ExecutionPlanException {
+        Map<String, Object> executionPlanMap = new HashMap<>();
+        executionPlanMap.put("id", "sinksID");
+        executionPlanMap.put("version", 0);
+        executionPlanMap.put("input", Collections.singletonList("test"));
+        executionPlanMap.put("output", Collections.singletonMap("testOutput", "outputTopic"));
+        executionPlanMap.put("sinks", Collections.singletonMap("testOutput", Arrays.asList("alerts", "all")));
+        executionPlanMap.put("filters", Collections.emptyMap());
+        executionPlanMap.put("executionPlan", "from test select a insert into testOutput");
+
+        SiddhiPlan siddhiPlan = SiddhiPlan.fromMap(executionPlanMap);
+        assertEquals(Collections.singletonMap("testOutput", Arrays.asList("alerts", "all")), siddhiPlan.getOutputSinks());
+        assertEquals(executionPlanMap, siddhiPlan.toMap());
+        assertEquals(executionPlanMap, SiddhiPlan.fromMap(siddhiPlan.toMap()).toMap());
+
+        // The plans without sinks don't have the key
+        executionPlanMap.remove("sinks");
+        assertFalse(SiddhiPlan.fromMap(executionPlanMap).toMap().containsKey("sinks"));
+    }
+
+    @Test(expected = TransformException.class)
+    public void createsFromMapInvalidSinks() throws ExecutionPlanException {
+        Map<String, Object> executionPlanMap = new HashMap<>();
+        executionPlanMap.put("id", "sinksID");
+        executionPlanMap.put("input", Collections.singletonList("test"));
+        executionPlanMap.put("output", Collections.singletonMap("testOutput", "outputTopic"));
+        executionPlanMap.put("sinks", Collections.singletonMap("testOutput", "alerts"));
+        executionPlanMap.put("executionPlan", "from test select a insert into testOutput");
+
+        SiddhiPlan.fromMap(executionPlanMap);
+    }
+
     @Test(expected = TransformException.class)
     public void createsFromMapInvalid() throws ExecutionPlanException {
         // Build a map with the execution plan data
@@ -90,4 +287,33 @@ public class SiddhiPlanTest extends TestCase {
         // Create the execution plan
         SiddhiPlan.fromMap(executionPlanMap);
     }
+
+    /**
+     * A callback that stores the events of the output streams
+     */
+
+    private static class OutputCallback extends SiddhiCallback {
+        private final List<Object[]> outputs = new ArrayList<>();
+
+        private OutputCallback() {
+            super(null);
+        }
+
+        @Override
+        public StreamCallback getCallback(String streamName, String topic, List<Attribute> attributes,
+                                          List<String> sinkNames, final Counter counter) {
+            return new StreamCallback() {
+                @Override
+                public void receive(Event[] events) {
+                    for (Event event : events) {
+                        outputs.add(event.getData());
+                    }
+                }
+            };
+        }
+
+        private Object[] last() {
+            return outputs.isEmpty() ? null : outputs.get(outputs.size() - 1);
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package net.redborder.cep.siddhi;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class StateStoreTest extends TestCase {
+    @Test
+    public void journalIsReplayed() throws Exception {
+        Path stateFile = Files.createTempDirectory("state").resolve("state.json");
+        StateStore stateStore = new StateStore(stateFile, true, 10);
+
+        Map<String, Object> first = plan("first");
+        Map<String, Object> second = plan("second");
+        stateStore.save(Arrays.asList(first, second));
+
+        // Only the changes are appended to the journal
+        stateStore.update(Collections.singletonList(first), Collections.<Map<String, Object>>emptyList(),
+                Collections.singletonList("second"));
+        assertTrue(Files.exists(stateFile.resolveSibling("state.json.journal")));
+
+        // A record that was not completely written is ignored
+        Files.write(stateFile.resolveSibling("state.json.journal"), "{\"op\":\"add\",\"pl".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        List<Map<String, Object>> plans = new StateStore(stateFile, true, 10).load();
+        assertEquals(Collections.singletonList(first), plans);
+    }
+
+    @Test
+    public void updateAfterTruncatedRecord() throws Exception {
+        Path stateFile = Files.createTempDirectory("state").resolve("state.json");
+        Path journalFile = stateFile.resolveSibling("state.json.journal");
+        StateStore stateStore = new StateStore(stateFile, true, 10);
+
+        Map<String, Object> first = plan("first");
+        Map<String, Object> second = plan("second");
+        stateStore.update(Collections.singletonList(first), Collections.singletonList(first),
+                Collections.<String>emptyList());
+
+        // The CEP stopped while it was writing a record
+        Files.write(journalFile, "{\"op\":\"add\",\"pl".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        stateStore = new StateStore(stateFile, true, 10);
+        assertEquals(Collections.singletonList(first), stateStore.load());
+
+        // The records written after the truncated one are not lost
+        List<Map<String, Object>> plans = Arrays.asList(first, second);
+        stateStore.update(plans, Collections.singletonList(second), Collections.<String>emptyList());
+        assertEquals(plans, new StateStore(stateFile, true, 10).load());
+    }
+
+    @Test
+    public void journalIsCompacted() throws Exception {
+        Path stateFile = Files.createTempDirectory("state").resolve("state.json");
+        StateStore stateStore = new StateStore(stateFile, true, 1);
+
+        Map<String, Object> first = plan("first");
+        Map<String, Object> second = plan("second");
+        List<Map<String, Object>> plans = Arrays.asList(first, second);
+
+        // The journal has no room for two records, so the whole state is written
+        stateStore.update(plans, plans, Collections.<String>emptyList());
+        assertFalse(Files.exists(stateFile.resolveSibling("state.json.journal")));
+        assertEquals(plans, new StateStore(stateFile, true, 1).load());
+    }
+
+    private Map<String, Object> plan(String id) {
+        Map<String, Object> plan = new LinkedHashMap<>();
+        plan.put("id", id);
+        plan.put("version", 0);
+        plan.put("executionPlan", "from test select * insert into out");
+        return plan;
+    }
+}
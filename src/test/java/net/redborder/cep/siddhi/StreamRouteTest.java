@@ -0,0 +1,99 @@
+package net.redborder.cep.siddhi;
+
+import junit.framework.TestCase;
+import net.redborder.cep.sources.parsers.JsonParser;
+import net.redborder.cep.util.ConfigData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.URL;
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class StreamRouteTest extends TestCase {
+    @BeforeClass
+    public static void init() {
+        URL testConfigPath = StreamRouteTest.class.getClassLoader().getResource("config.yml");
+        ConfigData.setConfigFile(testConfigPath.getFile());
+    }
+
+    @Test
+    public void enqueuesOnlyMatchingPlans() throws Exception {
+        StreamSchema schema = StreamSchema.of("test");
+        int streamId = schema.getId();
+
+        // Two plans share the same filters, written in a different order
+        Map<String, String> filters = new LinkedHashMap<>();
+        filters.put("a", "sensor1");
+        filters.put("d", "128");
+        Map<String, String> sameFilters = new LinkedHashMap<>();
+        sameFilters.put("d", "128");
+        sameFilters.put("a", "sensor1");
+
+        InputFilter filter = InputFilter.compile(schema, filters);
+        assertEquals(filter, InputFilter.compile(schema, sameFilters));
+
+        SiddhiPlan unfiltered = mock(SiddhiPlan.class);
+        SiddhiPlan filtered = mock(SiddhiPlan.class);
+        SiddhiPlan other = mock(SiddhiPlan.class);
+        when(unfiltered.enqueue(anyInt(), anyLong(), any(Object[].class))).thenReturn(true);
+        when(filtered.enqueue(anyInt(), anyLong(), any(Object[].class))).thenReturn(true);
+
+        Map<InputFilter, List<SiddhiPlan>> filteredPlans = new HashMap<>();
+        filteredPlans.put(filter, Collections.singletonList(filtered));
+        filteredPlans.put(InputFilter.compile(schema, Collections.singletonMap("a", "sensor2")),
+                Collections.singletonList(other));
+
+        StreamRoute route = new StreamRoute(Collections.singletonList(unfiltered), filteredPlans);
+
+        // The row matches the filters of the filtered plan, but not the ones of the other plan
+        Object[] row = { "sensor1", "b", "c", 128, 10 };
+        List<SiddhiPlan> pendingPlans = new ArrayList<>();
+        route.enqueue(streamId, 1L, row, pendingPlans);
+
+        assertEquals(Arrays.asList(unfiltered, filtered), pendingPlans);
+        verify(other, never()).enqueue(anyInt(), anyLong(), any(Object[].class));
+
+        // A row that matches the index value but not every filter
+        Object[] partial = { "sensor1", "b", "c", 64, 10 };
+        pendingPlans.clear();
+        route.enqueue(streamId, 2L, partial, pendingPlans);
+
+        assertEquals(Collections.singletonList(unfiltered), pendingPlans);
+    }
+
+    @Test
+    public void matchesNumericFiltersOfParsedMessages() throws Exception {
+        StreamSchema schema = StreamSchema.of("test3");
+        int streamId = schema.getId();
+
+        Map<String, String> filters = new HashMap<>();
+        filters.put("id", "5");
+        filters.put("ratio", "0.5");
+
+        SiddhiPlan filtered = mock(SiddhiPlan.class);
+        when(filtered.enqueue(anyInt(), anyLong(), any(Object[].class))).thenReturn(true);
+
+        StreamRoute route = new StreamRoute(Collections.<SiddhiPlan>emptyList(),
+                Collections.singletonMap(InputFilter.compile(schema, filters), Collections.singletonList(filtered)));
+
+        // The parser returns an integer for the long attribute, and a double for the float one
+        Map<String, Object> message = new JsonParser().parse("{\"id\": 5, \"ratio\": 0.5}");
+        Object[] row = new Object[schema.size()];
+        schema.project(message, row);
+
+        List<SiddhiPlan> pendingPlans = new ArrayList<>();
+        route.enqueue(streamId, 1L, row, pendingPlans);
+        assertEquals(Collections.singletonList(filtered), pendingPlans);
+
+        // A message with other values doesn't match
+        schema.project(new JsonParser().parse("{\"id\": 6, \"ratio\": 0.5}"), row);
+        pendingPlans.clear();
+        route.enqueue(streamId, 2L, row, pendingPlans);
+        assertTrue(pendingPlans.isEmpty());
+    }
+}
@@ -0,0 +1,49 @@
+package net.redborder.cep.sinks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class RowMapTest extends TestCase {
+    private final RowMap.Schema schema = new RowMap.Schema(Arrays.asList("a", "b", "c", "d"));
+
+    @Test
+    public void behavesAsMap() {
+        RowMap rowMap = new RowMap(schema, new Object[]{"testa", 10, null, true});
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a", "testa");
+        expected.put("b", 10);
+        expected.put("c", null);
+        expected.put("d", true);
+
+        assertEquals(expected, rowMap);
+        assertEquals(10, rowMap.get("b"));
+        assertTrue(rowMap.containsKey("c"));
+        assertFalse(rowMap.containsKey("e"));
+    }
+
+    @Test
+    public void writesJson() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        RowMap rowMap = new RowMap(schema, new Object[]{"testa", 10L, null, Arrays.asList(1, 2)});
+
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(writer);
+        rowMap.writeTo(generator);
+        generator.close();
+
+        // The JSON must be the same that the map serialization produces
+        assertEquals(objectMapper.readValue(objectMapper.writeValueAsString(rowMap), Map.class),
+                objectMapper.readValue(writer.toString(), Map.class));
+    }
+}
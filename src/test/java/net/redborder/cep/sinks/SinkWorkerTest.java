@@ -0,0 +1,71 @@
+package net.redborder.cep.sinks;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class SinkWorkerTest extends TestCase {
+    @Mock
+    private Sink sink;
+
+    private static Map<String, Object> message(int value) {
+        return Collections.<String, Object>singletonMap("value", value);
+    }
+
+    @Test
+    public void dropsNewest() {
+        // The worker is not started, so the messages stay on the queue
+        SinkWorker worker = new SinkWorker("test", sink, 2, SinkWorker.OverflowPolicy.DROP_NEWEST);
+
+        for (int i = 0; i < 5; i++) {
+            worker.process("stream", "topic", message(i));
+        }
+
+        assertEquals(3, worker.getDropped());
+        assertEquals(2, worker.getPending());
+    }
+
+    @Test
+    public void dropsOldest() {
+        SinkWorker worker = new SinkWorker("test", sink, 2, SinkWorker.OverflowPolicy.DROP_OLDEST);
+
+        for (int i = 0; i < 5; i++) {
+            worker.process("stream", "topic", message(i));
+        }
+
+        assertEquals(3, worker.getDropped());
+
+        // Only the newest messages are processed when the worker runs
+        worker.start();
+        worker.shutdown();
+
+        verify(sink).process("stream", "topic", message(3));
+        verify(sink).process("stream", "topic", message(4));
+        verify(sink, never()).process("stream", "topic", message(0));
+    }
+
+    @Test
+    public void processesPendingOnShutdown() {
+        SinkWorker worker = new SinkWorker("test", sink, 16, SinkWorker.OverflowPolicy.BLOCK);
+        worker.start();
+
+        for (int i = 0; i < 10; i++) {
+            worker.process("stream", "topic", message(i));
+        }
+
+        worker.shutdown();
+
+        verify(sink, times(10)).process(eq("stream"), eq("topic"), ArgumentMatchers.<String, Object>anyMap());
+        verify(sink).shutdown();
+        assertEquals(0, worker.getDropped());
+    }
+}
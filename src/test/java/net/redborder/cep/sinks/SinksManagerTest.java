@@ -0,0 +1,102 @@
+package net.redborder.cep.sinks;
+
+import junit.framework.TestCase;
+import net.redborder.cep.util.ConfigData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class SinksManagerTest extends TestCase {
+    // The output streams received by each test sink, by sink name
+    private static final Map<String, List<String>> received = new ConcurrentHashMap<>();
+
+    @BeforeClass
+    public static void init() {
+        URL testConfigPath = SinksManagerTest.class.getClassLoader().getResource("config.yml");
+        ConfigData.setConfigFile(testConfigPath.getFile());
+    }
+
+    @Test
+    public void routesToTheSinksOfThePlan() {
+        SinksManager sinksManager = new SinksManager();
+        SinkRoute route = sinksManager.route("planned", "planned_topic", Collections.singletonList("alerts"));
+        assertEquals(1, route.size());
+
+        // The sinks of the plan receive the stream, even if their config entry doesn't accept it
+        route.process("planned", "planned_topic", Collections.<String, Object>emptyMap());
+        sinksManager.shutdown();
+
+        assertTrue(received("alerts").contains("planned"));
+        assertFalse(received("all").contains("planned"));
+    }
+
+    @Test
+    public void routesByConfigStreams() {
+        SinksManager sinksManager = new SinksManager();
+
+        // The sink "alerts" only accepts its streams, by stream name or by topic
+        assertEquals(2, sinksManager.route("alerts", "alerts_topic", null).size());
+        assertEquals(2, sinksManager.route("audit", "audit_topic", null).size());
+
+        SinkRoute route = sinksManager.route("other", "other_topic", null);
+        assertEquals(1, route.size());
+
+        route.process("other", "other_topic", Collections.<String, Object>emptyMap());
+        sinksManager.shutdown();
+
+        assertTrue(received("all").contains("other"));
+        assertFalse(received("alerts").contains("other"));
+    }
+
+    @Test
+    public void ignoresUnknownSinks() {
+        SinksManager sinksManager = new SinksManager();
+
+        assertEquals(0, sinksManager.route("unknown", "unknown_topic", Collections.singletonList("missing")).size());
+
+        SinkRoute route = sinksManager.route("unknown", "unknown_topic", Arrays.asList("missing", "all"));
+        assertEquals(1, route.size());
+
+        route.process("unknown", "unknown_topic", Collections.<String, Object>emptyMap());
+        sinksManager.shutdown();
+
+        assertTrue(received("all").contains("unknown"));
+        assertFalse(received("alerts").contains("unknown"));
+    }
+
+    private static List<String> received(String sinkName) {
+        List<String> streams = received.get(sinkName);
+        return streams == null ? Collections.<String>emptyList() : streams;
+    }
+
+    /**
+     * A sink that stores the output streams that it receives, by the name of its properties
+     */
+
+    public static class TestSink extends Sink {
+        public TestSink(Map<String, Object> properties) {
+            super(properties);
+        }
+
+        @Override
+        public void process(String streamName, String topic, Map<String, Object> message) {
+            String name = getProperty("name", "").toString();
+            if (!received.containsKey(name)) received.put(name, Collections.synchronizedList(new ArrayList<String>()));
+            received.get(name).add(streamName);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
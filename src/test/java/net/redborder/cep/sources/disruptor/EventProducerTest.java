@@ -0,0 +1,109 @@
+package net.redborder.cep.sources.disruptor;
+
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import junit.framework.TestCase;
+import net.redborder.cep.siddhi.StreamSchema;
+import net.redborder.cep.sources.parsers.Parser;
+import net.redborder.cep.sources.parsers.SchemaJsonParser;
+import net.redborder.cep.util.ConfigData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class EventProducerTest extends TestCase {
+    @BeforeClass
+    public static void init() {
+        URL testConfigPath = EventProducerTest.class.getClassLoader().getResource("config.yml");
+        ConfigData.setConfigFile(testConfigPath.getFile());
+    }
+
+    @Test
+    public void tryPutDataPublishesWhatFits() {
+        // A ring buffer with a consumer that never advances
+        RingBuffer<RowEvent> ringBuffer = RingBuffer.createSingleProducer(new RowEventFactory(), 4);
+        ringBuffer.addGatingSequences(new Sequence());
+        EventProducer eventProducer = new EventProducer(ringBuffer);
+
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            messages.add(("{\"a\":\"value" + i + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        StreamSchema schema = StreamSchema.of("test");
+        SchemaJsonParser parser = new SchemaJsonParser("test");
+
+        // Only the first four messages fit
+        assertEquals(4, eventProducer.tryPutData(schema, parser, messages, 0));
+        assertEquals(0, eventProducer.tryPutData(schema, parser, messages, 4));
+        assertEquals(1.0, eventProducer.getOccupancy(), 0.0);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.get(i).isValid());
+        }
+    }
+
+    @Test
+    public void failedParserInvalidatesTheRestOfTheRange() {
+        RingBuffer<RowEvent> ringBuffer = RingBuffer.createSingleProducer(new RowEventFactory(), 4);
+        Sequence consumer = new Sequence();
+        ringBuffer.addGatingSequences(consumer);
+        EventProducer eventProducer = new EventProducer(ringBuffer);
+        StreamSchema schema = StreamSchema.of("test");
+
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            messages.add(("value" + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // The first lap of the ring buffer is consumed
+        Parser parser = new FailingParser();
+        eventProducer.putData(schema, parser, messages);
+        consumer.set(ringBuffer.getCursor());
+
+        // The parser fails on the second message of the next lap
+        messages.set(1, "fail".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            eventProducer.putData(schema, parser, messages);
+            fail("The exception wasn't thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("fail", e.getMessage());
+        }
+
+        // The whole range is published, but only the first entry holds a message
+        assertEquals(7, ringBuffer.getCursor());
+        assertTrue(ringBuffer.get(4).isValid());
+        assertEquals("value0", ringBuffer.get(4).getRow()[0]);
+
+        for (int i = 5; i < 8; i++) {
+            assertFalse(ringBuffer.get(i).isValid());
+        }
+    }
+
+    /**
+     * A parser that puts the message into the attribute "a", and fails with the message "fail"
+     */
+
+    private static class FailingParser implements Parser {
+        @Override
+        public Map<String, Object> parse(String message) {
+            if (message.equals("fail")) throw new IllegalStateException(message);
+            return Collections.<String, Object>singletonMap("a", message);
+        }
+
+        @Override
+        public Map<String, Object> parse(byte[] buf, int off, int len) {
+            return parse(new String(buf, off, len, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.redborder.cep.sources.kafka;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class ConsumerGateTest extends TestCase {
+    @Test
+    public void closeWaitsForThreadsInside() throws Exception {
+        ConsumerGate gate = new ConsumerGate();
+
+        // A thread inside the gate doesn't let it close
+        gate.enter();
+        assertFalse(gate.close(10));
+
+        // The gate was opened again, so the thread can exit and the gate can close
+        gate.exit();
+        assertTrue(gate.close(10));
+        gate.open();
+    }
+
+    @Test
+    public void enterWaitsWhileClosed() throws Exception {
+        final ConsumerGate gate = new ConsumerGate();
+        final CountDownLatch entered = new CountDownLatch(1);
+        assertTrue(gate.close(10));
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.enter();
+                    entered.countDown();
+                    gate.exit();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+
+        // The thread waits until the gate is opened
+        assertFalse(entered.await(50, TimeUnit.MILLISECONDS));
+        gate.open();
+        assertTrue(entered.await(1, TimeUnit.SECONDS));
+        thread.join();
+    }
+}
@@ -0,0 +1,326 @@
+package net.redborder.cep.sources.kafka;
+
+import com.lmax.disruptor.EventHandler;
+import junit.framework.TestCase;
+import net.redborder.cep.metrics.Metrics;
+import net.redborder.cep.sources.disruptor.RowEvent;
+import net.redborder.cep.sources.parsers.Parser;
+import net.redborder.cep.sources.parsers.ParsersManager;
+import net.redborder.cep.util.ConfigData;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class KafkaConsumerSourceTest extends TestCase {
+    private static final TopicPartition PARTITION = new TopicPartition("test", 0);
+
+    @BeforeClass
+    public static void init() {
+        URL testConfigPath = KafkaConsumerSourceTest.class.getClassLoader().getResource("config.yml");
+        ConfigData.setConfigFile(testConfigPath.getFile());
+    }
+
+    @Test
+    public void keepsPollingWhileHeld() throws Exception {
+        TestConsumerSource source = new TestConsumerSource(Collections.<String, Object>emptyMap());
+        source.start();
+
+        source.consumer.produce(0, 3);
+        source.handler.await(3);
+
+        // The records polled during the pause are not sent, but the consumer keeps polling
+        assertTrue(source.pause());
+        source.consumer.produce(3, 2);
+        int polls = source.consumer.polls();
+        Thread.sleep(200);
+
+        assertTrue(source.consumer.polls() > polls);
+        assertEquals(3, source.handler.values().size());
+
+        // The offsets committed are the ones of the records sent before the pause
+        source.commit();
+        source.resume();
+        source.handler.await(5);
+        source.shutdown();
+
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4"), source.handler.values());
+        assertEquals(Collections.singletonList(3L), source.consumer.commits());
+    }
+
+    @Test
+    public void pausesAtHighWatermarkAndResumesAtLowWatermark() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("high_watermark", 0.5);
+        properties.put("low_watermark", 0.1);
+        TestConsumerSource source = new TestConsumerSource(properties);
+        long pauses = Metrics.counter("source.kafka.pauses").get();
+
+        source.handler.block();
+        source.start();
+
+        // 3 of 8 entries are under the high watermark
+        source.consumer.produce(0, 3);
+        awaitOccupancy(source, 3);
+        Thread.sleep(100);
+        assertFalse(source.consumer.isPaused());
+
+        // 5 of 8 entries are over it
+        source.consumer.produce(3, 2);
+        source.consumer.awaitPaused(true);
+
+        // 2 of 8 entries are still over the low watermark
+        source.handler.allow(3);
+        awaitOccupancy(source, 2);
+        Thread.sleep(100);
+        assertTrue(source.consumer.isPaused());
+        assertEquals(pauses + 1, Metrics.counter("source.kafka.pauses").get());
+
+        // The ring buffer is drained under the low watermark
+        source.handler.allow(2);
+        source.consumer.awaitPaused(false);
+
+        source.handler.unblock();
+        source.consumer.produce(5, 1);
+        source.handler.await(6);
+        source.shutdown();
+
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), source.handler.values());
+    }
+
+    @Test
+    public void keepsRecordsInOrderThroughTheBacklog() throws Exception {
+        TestConsumerSource source = new TestConsumerSource(Collections.<String, Object>emptyMap());
+        source.handler.block();
+        source.start();
+
+        // The records that don't fit on the ring buffer are kept on the backlog
+        source.consumer.produce(0, 20);
+        source.consumer.awaitPaused(true);
+        awaitOccupancy(source, 8);
+
+        // The backlog is published before the records polled after it
+        source.handler.allow(4);
+        source.consumer.produce(20, 10);
+        source.handler.unblock();
+        source.handler.await(30);
+        source.consumer.awaitPaused(false);
+        source.shutdown();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 30; i++) expected.add(String.valueOf(i));
+        assertEquals(expected, source.handler.values());
+    }
+
+    private static void awaitOccupancy(KafkaConsumerSource source, int entries) throws InterruptedException {
+        double occupancy = entries / (double) source.eventProducer.getBufferSize();
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (source.eventProducer.getOccupancy() != occupancy && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(occupancy, source.eventProducer.getOccupancy(), 0.0);
+    }
+
+    /**
+     * A KafkaConsumerSource of the stream "test" that polls from a TestConsumer
+     */
+
+    private static class TestConsumerSource extends KafkaConsumerSource {
+        private final TestConsumer consumer = new TestConsumer();
+        private final TestHandler handler;
+
+        private TestConsumerSource(Map<String, Object> properties) {
+            this(properties, new TestHandler());
+        }
+
+        private TestConsumerSource(Map<String, Object> properties, TestHandler handler) {
+            super(parsersManager(), new EventHandler[]{ handler }, withDefaults(properties));
+            this.handler = handler;
+            addStreams("test");
+        }
+
+        private static Map<String, Object> withDefaults(Map<String, Object> properties) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("ring_buffer_size", 8);
+            result.put("poll_timeout_ms", 10);
+            result.putAll(properties);
+            return result;
+        }
+
+        private static ParsersManager parsersManager() {
+            ParsersManager parsersManager = mock(ParsersManager.class);
+            when(parsersManager.getParserByStream("test")).thenReturn(new Parser() {
+                @Override
+                public Map<String, Object> parse(String message) {
+                    return Collections.<String, Object>singletonMap("a", message);
+                }
+
+                @Override
+                public Map<String, Object> parse(byte[] buf, int off, int len) {
+                    return parse(new String(buf, off, len, StandardCharsets.UTF_8));
+                }
+            });
+
+            return parsersManager;
+        }
+
+        @Override
+        Consumer<byte[], byte[]> createConsumer(Properties props) {
+            return consumer;
+        }
+    }
+
+    /**
+     * A MockConsumer that keeps the records of the paused partitions until they are
+     * resumed, like a broker does, and that records the polls and the offsets committed.
+     */
+
+    static class TestConsumer extends MockConsumer<byte[], byte[]> {
+        private final Deque<ConsumerRecord<byte[], byte[]>> produced = new ArrayDeque<>();
+        private final List<Long> commits = new ArrayList<>();
+        private int polls;
+
+        private TestConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+            updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+
+            // The partition is assigned on the first poll, after the subscription
+            schedulePollTask(new Runnable() {
+                @Override
+                public void run() {
+                    rebalance(Collections.singletonList(PARTITION));
+                }
+            });
+        }
+
+        /**
+         * Produces records whose values are their offsets.
+         *
+         * @param offset The offset of the first record
+         * @param count The number of records
+         */
+
+        synchronized void produce(long offset, int count) {
+            for (long i = offset; i < offset + count; i++) {
+                byte[] value = String.valueOf(i).getBytes(StandardCharsets.UTF_8);
+                produced.add(new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), i, (byte[]) null, value));
+            }
+        }
+
+        @Override
+        public synchronized ConsumerRecords<byte[], byte[]> poll(long timeout) {
+            polls++;
+
+            if (assignment().contains(PARTITION) && !paused().contains(PARTITION)) {
+                ConsumerRecord<byte[], byte[]> record;
+                while ((record = produced.poll()) != null) addRecord(record);
+            }
+
+            return super.poll(timeout);
+        }
+
+        @Override
+        public synchronized void pause(Collection<TopicPartition> partitions) {
+            super.pause(partitions);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void resume(Collection<TopicPartition> partitions) {
+            super.resume(partitions);
+            notifyAll();
+        }
+
+        synchronized boolean isPaused() {
+            return paused().contains(PARTITION);
+        }
+
+        synchronized void awaitPaused(boolean expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+
+            while (isPaused() != expected && System.currentTimeMillis() < deadline) {
+                wait(10);
+            }
+
+            assertEquals(expected, isPaused());
+        }
+
+        @Override
+        public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+            commits.add(offsets.get(PARTITION).offset());
+            super.commitSync(offsets);
+        }
+
+        synchronized int polls() {
+            return polls;
+        }
+
+        synchronized List<Long> commits() {
+            return new ArrayList<>(commits);
+        }
+    }
+
+    /**
+     * A consumer of the ring buffer that stores the value of the attribute "a" of each event,
+     * and that can be blocked to fill the ring buffer.
+     */
+
+    static class TestHandler implements EventHandler<RowEvent> {
+        private final List<String> values = new ArrayList<>();
+
+        // The events that can be processed before blocking, or -1 if there is no limit
+        private int permits = -1;
+
+        @Override
+        public synchronized void onEvent(RowEvent event, long sequence, boolean endOfBatch) throws InterruptedException {
+            while (permits == 0) wait();
+            if (permits > 0) permits--;
+            if (event.isValid()) values.add((String) event.getRow()[0]);
+            notifyAll();
+        }
+
+        synchronized void block() {
+            permits = 0;
+        }
+
+        synchronized void allow(int count) {
+            permits += count;
+            notifyAll();
+        }
+
+        synchronized void unblock() {
+            permits = -1;
+            notifyAll();
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+
+            while (values.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+
+            assertEquals(count, values.size());
+        }
+
+        synchronized List<String> values() {
+            return new ArrayList<>(values);
+        }
+    }
+}
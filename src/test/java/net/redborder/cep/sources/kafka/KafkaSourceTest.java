@@ -0,0 +1,88 @@
+package net.redborder.cep.sources.kafka;
+
+import com.lmax.disruptor.EventHandler;
+import junit.framework.TestCase;
+import net.redborder.cep.sources.disruptor.RowEvent;
+import net.redborder.cep.sources.parsers.ParsersManager;
+import net.redborder.cep.util.ConfigData;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.URL;
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class KafkaSourceTest extends TestCase {
+    private static final String PARTITIONS_PATH = "/brokers/topics/test/partitions";
+
+    @BeforeClass
+    public static void init() {
+        URL testConfigPath = KafkaSourceTest.class.getClassLoader().getResource("config.yml");
+        ConfigData.setConfigFile(testConfigPath.getFile());
+    }
+
+    @Test
+    public void startsStreamsOnlyForNewPartitions() throws Exception {
+        TestKafkaSource source = new TestKafkaSource();
+        when(source.curator.getChildren().forPath(PARTITIONS_PATH))
+                .thenReturn(Arrays.asList("0", "1", "2", "3", "4", "5"));
+
+        Topic topic = new Topic("test", 4, null, source);
+        WatchedEvent changed = new WatchedEvent(Watcher.Event.EventType.NodeChildrenChanged,
+                Watcher.Event.KeeperState.SyncConnected, PARTITIONS_PATH);
+
+        // The topic grows from 4 to 6 partitions, so only 2 streams are started
+        source.new PartitionsWatcher(topic).process(changed);
+        assertEquals(Collections.singletonList(2), source.startedStreams);
+        assertEquals(Integer.valueOf(6), topic.getPartitions());
+
+        // The same partitions don't start more streams
+        source.new PartitionsWatcher(topic).process(changed);
+        assertEquals(Collections.singletonList(2), source.startedStreams);
+    }
+
+    @Test
+    public void ignoresOtherEvents() throws Exception {
+        TestKafkaSource source = new TestKafkaSource();
+        Topic topic = new Topic("test", 4, null, source);
+        WatchedEvent deleted = new WatchedEvent(Watcher.Event.EventType.NodeDeleted,
+                Watcher.Event.KeeperState.SyncConnected, PARTITIONS_PATH);
+
+        source.new PartitionsWatcher(topic).process(deleted);
+        assertTrue(source.startedStreams.isEmpty());
+        assertEquals(Integer.valueOf(4), topic.getPartitions());
+    }
+
+    /**
+     * A KafkaSource without ZooKeeper nor Kafka, that records the streams started
+     */
+
+    private static class TestKafkaSource extends KafkaSource {
+        private final List<Integer> startedStreams = new ArrayList<>();
+
+        private TestKafkaSource() {
+            super(mock(ParsersManager.class), new EventHandler[]{ new EventHandler<RowEvent>() {
+                @Override
+                public void onEvent(RowEvent event, long sequence, boolean endOfBatch) {
+                }
+            }}, Collections.<String, Object>emptyMap());
+        }
+
+        @Override
+        public void prepare() {
+            curator = mock(CuratorFramework.class, RETURNS_DEEP_STUBS);
+        }
+
+        @Override
+        synchronized void startStreams(Topic topic, int streamsCount) {
+            startedStreams.add(streamsCount);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package net.redborder.cep.sources.parsers;
+
+import junit.framework.TestCase;
+import net.redborder.cep.metrics.Metrics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class JsonParserTest extends TestCase {
+    @Test
+    public void parsesBytes() {
+        JsonParser parser = new JsonParser();
+        byte[] message = "xx{\"a\":\"testa\"}xx".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(Collections.singletonMap("a", "testa"), parser.parse(message, 2, message.length - 4));
+    }
+
+    @Test
+    public void countsMalformedMessages() {
+        JsonParser parser = new JsonParser();
+        long failures = Metrics.counter("parser.json.failures").get();
+        byte[] message = "{\"a\":".getBytes(StandardCharsets.UTF_8);
+
+        assertNull(parser.parse(message, 0, message.length));
+        assertNull(parser.parse("not json"));
+        assertEquals(failures + 2, Metrics.counter("parser.json.failures").get());
+    }
+}
@@ -0,0 +1,69 @@
+package net.redborder.cep.sources.parsers;
+
+import junit.framework.TestCase;
+import net.redborder.cep.util.ConfigData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class SchemaJsonParserTest extends TestCase {
+    @BeforeClass
+    public static void init() {
+        URL testConfigPath = SchemaJsonParserTest.class.getClassLoader().getResource("config.yml");
+        ConfigData.setConfigFile(testConfigPath.getFile());
+    }
+
+    @Test
+    public void parsesOnlyAttributes() {
+        SchemaJsonParser parser = new SchemaJsonParser("test");
+        String message = "{\"a\":\"testa\",\"unknown\":\"value\",\"nested\":{\"a\":\"other\",\"list\":[1,2,3]},\"d\":128}";
+
+        // The expected map only contains the stream attributes
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a", "testa");
+        expected.put("d", 128);
+
+        assertEquals(expected, parser.parse(message));
+    }
+
+    @Test
+    public void parsesBytes() {
+        SchemaJsonParser parser = new SchemaJsonParser("test");
+        byte[] message = "xx{\"b\":\"testb\",\"e\":10}xx".getBytes(StandardCharsets.UTF_8);
+
+        // Parse only the JSON object inside the buffer
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("b", "testb");
+        expected.put("e", 10);
+
+        assertEquals(expected, parser.parse(message, 2, message.length - 4));
+    }
+
+    @Test
+    public void coercesTypes() {
+        SchemaJsonParser parser = new SchemaJsonParser("test");
+        String message = "{\"a\":5,\"d\":\"128\",\"e\":10.0,\"c\":{\"ignored\":true},\"b\":null}";
+
+        // Numbers become strings and strings become numbers, as declared on the config
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a", "5");
+        expected.put("d", 128);
+        expected.put("e", 10);
+
+        assertEquals(expected, parser.parse(message));
+    }
+
+    @Test
+    public void invalidMessage() {
+        SchemaJsonParser parser = new SchemaJsonParser("test");
+        assertNull(parser.parse("[1, 2, 3]"));
+        assertNull(parser.parse("{\"a\": "));
+    }
+}